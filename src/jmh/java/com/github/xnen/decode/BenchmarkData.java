@@ -0,0 +1,112 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.App;
+import com.github.xnen.settings.Settings;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author xnen
+ * Synthetic inputs for the benchmarks, all under one temp directory: a JDK whose rt.jar and a library jar
+ * hold generated class names, settings pointing at them, and generated JSC sources.
+ */
+final class BenchmarkData {
+    /** Classes are spread over this many packages, i.e. bench.p0.C0 ... bench.p63.C63, bench.p0.C64 ... */
+    static final int PACKAGES = 64;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates the directory layout and installs an App using it.
+     * @param jarClasses number of classes in each jar
+     * @return the root directory, to be removed with Workspace.deleteTree
+     */
+    static File setUp(int jarClasses) throws IOException {
+        File root = Files.createTempDirectory("jscbench").toFile();
+        File jdk = new File(root, "jdk");
+        File libs = new File(root, "libs");
+        File rtLib = new File(jdk, "jre" + File.separator + "lib");
+        if (!rtLib.mkdirs() || !libs.mkdirs()) {
+            throw new IOException("Could not create " + root);
+        }
+
+        writeJar(new File(rtLib, "rt.jar"), "bench", jarClasses);
+        writeJar(new File(libs, "library.jar"), "lib", jarClasses);
+
+        Settings settings = new Settings();
+        settings.JDK_LOCATION = jdk.getAbsolutePath();
+        settings.LIB_DIRECTORY = libs.getAbsolutePath();
+        settings.CACHE_DIRECTORY = new File(root, "cache").getAbsolutePath();
+        App.stInstance = new App(settings);
+        return root;
+    }
+
+    static File getLibraryJar(File root) {
+        return new File(root, "libs" + File.separator + "library.jar");
+    }
+
+    /**
+     * A jar with empty entries, which is all the index looks at.
+     */
+    private static void writeJar(File jar, String rootPackage, int classes) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jar)))) {
+            for (int i = 0; i < classes; i++) {
+                out.putNextEntry(new ZipEntry(rootPackage + "/p" + (i % PACKAGES) + "/C" + i + ".class"));
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * @return macro keys M0 ... M(count - 1), each expanding to a method call
+     */
+    static Map<String, String> macros(int count) {
+        Map<String, String> macros = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            macros.put("M" + i, "System.out.println");
+        }
+        return macros;
+    }
+
+    /**
+     * @return JSC source of about the given number of lines: imports and macros, then methods and main scope
+     * statements with literals and comments, using every macro
+     */
+    static String source(int lines, int macros) {
+        StringBuilder source = new StringBuilder();
+        int written = 0;
+        for (int i = 0; i < 10; i++, written++) {
+            source.append("import C").append(i).append(";\n");
+        }
+        for (int i = 0; i < macros; i++, written++) {
+            source.append("!macro \"M").append(i).append("\" \"System.out.println\"\n");
+        }
+
+        for (int i = 0; written < lines; i++) {
+            String macro = macros > 0 ? "M" + (i % macros) : "System.out.println";
+            source.append("svoid method").append(i).append("(int a) {\n")
+                    .append("    String s = \"text; with { braces } and // no comment\";\n")
+                    .append("    int total = a * 2; // trailing comment\n")
+                    .append("    /* block */ ").append(macro).append("(total);\n")
+                    .append("    if (total > 10) { ").append(macro).append("(s + total); }\n")
+                    .append("}\n")
+                    .append("method").append(i).append("(").append(i).append(");\n")
+                    .append("int v").append(i).append(" = ").append(i).append("; ").append(macro).append("(v").append(i).append(");\n");
+            written += 8;
+        }
+        return source.toString();
+    }
+
+    static File writeSource(File root, String name, String source) throws IOException {
+        File file = new File(root, name);
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.cache.Workspace;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author xnen
+ * JSCFormatter.format over a JSC file of a given size, including reading it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FormatterBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    private File root;
+    private File jscFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.root = BenchmarkData.setUp(1000);
+        this.jscFile = BenchmarkData.writeSource(this.root, "Bench.jsc", BenchmarkData.source(this.lines, 10));
+    }
+
+    @TearDown
+    public void tearDown() {
+        Workspace.deleteTree(this.root);
+    }
+
+    @Benchmark
+    public List<String> format() {
+        return JSCFormatter.format(this.jscFile);
+    }
+}
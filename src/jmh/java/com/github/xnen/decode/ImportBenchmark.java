@@ -0,0 +1,83 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.cache.Workspace;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author xnen
+ * Import lookup against synthetic jars: loading a jar's persisted index, resolving an import with a new
+ * resolver (indexes of every jar included), and class and wildcard package lookups in a loaded index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImportBenchmark {
+    /** Number of lookups per findClasses invocation. */
+    private static final int LOOKUPS = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int jarClasses;
+
+    private File root;
+    private String libraryJar;
+    private JarIndex index;
+    private String[] names;
+    private String[] packageNames;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.root = BenchmarkData.setUp(this.jarClasses);
+        this.libraryJar = BenchmarkData.getLibraryJar(this.root).getAbsolutePath();
+        // Persists the index, so loadIndex measures reading it like every build after the first.
+        this.index = JarIndex.load(this.libraryJar);
+
+        this.names = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            int classIndex = (int) ((long) i * this.jarClasses / LOOKUPS);
+            // Mix simple and partially qualified names, as written in JSC imports.
+            this.names[i] = i % 2 == 0 ? "C" + classIndex : "p" + (classIndex % BenchmarkData.PACKAGES) + ".C" + classIndex;
+        }
+
+        this.packageNames = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            this.packageNames[i] = i % 2 == 0 ? "p" + (i % BenchmarkData.PACKAGES) : "lib.p" + (i % BenchmarkData.PACKAGES);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Workspace.deleteTree(this.root);
+    }
+
+    @Benchmark
+    public JarIndex loadIndex() {
+        return JarIndex.load(this.libraryJar);
+    }
+
+    @Benchmark
+    public JavaImport resolveCold() {
+        return new JavaImport(this.names[0], new ImportResolver());
+    }
+
+    @Benchmark
+    public int findClasses() {
+        int found = 0;
+        for (String name : this.names) {
+            found += this.index.findClasses(name).size();
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int findPackages() {
+        int found = 0;
+        for (String name : this.packageNames) {
+            found += this.index.findPackages(name).size();
+        }
+        return found;
+    }
+}
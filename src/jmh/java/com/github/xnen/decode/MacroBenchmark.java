@@ -0,0 +1,60 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.cache.Workspace;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author xnen
+ * Macro expansion of a class's generated lines, and building the engine for a set of macros.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MacroBenchmark {
+    @Param({"1000", "10000"})
+    public int lines;
+
+    @Param({"10", "100", "1000"})
+    public int macros;
+
+    private File root;
+    private Map<String, String> macroMap;
+    private MacroEngine engine;
+    private List<String> javaLines;
+    private final StringBuilder out = new StringBuilder();
+
+    @Setup
+    public void setUp() throws IOException {
+        this.root = BenchmarkData.setUp(1000);
+        File jscFile = BenchmarkData.writeSource(this.root, "Bench.jsc", BenchmarkData.source(this.lines, this.macros));
+        this.javaLines = JSCParser.parse(new ImportResolver(), "Bench.jsc", JSCFormatter.format(jscFile)).toJavaClass();
+        this.macroMap = BenchmarkData.macros(this.macros);
+        this.engine = new MacroEngine(this.macroMap);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Workspace.deleteTree(this.root);
+    }
+
+    @Benchmark
+    public int expand() {
+        this.out.setLength(0);
+        for (String line : this.javaLines) {
+            this.engine.expand(line, this.out);
+            this.out.append('\n');
+        }
+        return this.out.length();
+    }
+
+    @Benchmark
+    public MacroEngine build() {
+        return new MacroEngine(this.macroMap);
+    }
+}
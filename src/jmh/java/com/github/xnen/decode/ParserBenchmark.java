@@ -0,0 +1,54 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.cache.Workspace;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author xnen
+ * JSCParser.parse over formatted lines, and JSCClass.toJavaClass over the parsed class. Imports resolve
+ * against a warm resolver, like every file after the first of a build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int lines;
+
+    @Param({"10", "100", "1000"})
+    public int macros;
+
+    private File root;
+    private ImportResolver importResolver;
+    private List<String> formatted;
+    private JSCClass parsed;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.root = BenchmarkData.setUp(1000);
+        File jscFile = BenchmarkData.writeSource(this.root, "Bench.jsc", BenchmarkData.source(this.lines, this.macros));
+        this.formatted = JSCFormatter.format(jscFile);
+        this.importResolver = new ImportResolver();
+        this.parsed = JSCParser.parse(this.importResolver, "Bench.jsc", this.formatted);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Workspace.deleteTree(this.root);
+    }
+
+    @Benchmark
+    public JSCClass parse() {
+        return JSCParser.parse(this.importResolver, "Bench.jsc", this.formatted);
+    }
+
+    @Benchmark
+    public List<String> toJavaClass() {
+        return this.parsed.toJavaClass();
+    }
+}
@@ -1,20 +1,29 @@
 package com.github.xnen;
 
 
-import com.github.xnen.decode.JSCHandler;
+import com.github.xnen.cache.CdsArchives;
+import com.github.xnen.daemon.DaemonClient;
+import com.github.xnen.daemon.JSCDaemon;
+import com.github.xnen.decode.JSCException;
 import com.github.xnen.exception.ParameterException;
 import com.github.xnen.impl.IHandler;
 import com.github.xnen.param.ParamBuilder;
 import com.github.xnen.param.Parameter;
+import com.github.xnen.profile.Profiler;
+import com.github.xnen.run.InProcessRunner;
+import com.github.xnen.run.ScriptBuilder;
+import com.github.xnen.run.ScriptBundler;
+import com.github.xnen.run.ScriptClassLoader;
+import com.github.xnen.run.ScriptPrecompiler;
+import com.github.xnen.run.ScriptProcess;
+import com.github.xnen.run.ScriptRepl;
+import com.github.xnen.run.ScriptWatcher;
 import com.github.xnen.settings.Settings;
 import com.google.gson.Gson;
 
 import java.awt.*;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Locale;
 import java.util.Scanner;
 
@@ -23,6 +32,10 @@ public class App {
 
     private Parameters parameters;
     private Settings settings;
+    private boolean watch;
+    /** Standalone jar to write instead of running the script, empty for the script's name. */
+    private String buildOutput;
+    private boolean classList;
 
     public static App stInstance;
 
@@ -37,8 +50,23 @@ public class App {
     public App() {
     }
 
+    /**
+     * An app with the given settings instead of those in javart.json, i.e. to drive the pipeline from benchmarks.
+     */
+    public App(Settings settings) {
+        this.settings = settings;
+    }
+
     private void init(String[] args) {
-        this.loadSettings();
+        // Ahead of the parameters, so loading settings is profiled too.
+        if (Arrays.asList(args).contains("--profile")) {
+            Profiler.enable();
+            Profiler.describe(String.join(" ", args));
+        }
+
+        try (Profiler.Phase ignored = Profiler.phase("settings")) {
+            this.loadSettings();
+        }
 
         this.parameters = new Parameters(getJARName(), "Run Java in quick scripting or in a real-time prompt.");
 
@@ -47,6 +75,14 @@ public class App {
 
         this.parameters.setDefaultParameter(FILE_HANDLER_PARAM);
         this.parameters.register(CLEAR_SETTINGS_PARAM);
+        this.parameters.register(DAEMON_PARAM);
+        this.parameters.register(WATCH_PARAM);
+        this.parameters.register(BUILD_PARAM);
+        this.parameters.register(CLASS_LIST_PARAM);
+        this.parameters.register(PRECOMPILE_PARAM);
+        this.parameters.register(REPL_PARAM);
+        this.parameters.register(PROFILE_PARAM);
+        this.parameters.register(CDS_PARAM);
         this.parameters.register(ParamBuilder.with().identifier("--settings").description("Open settings file").handler(OPEN_SETTINGS_HANDLER).priority((short) 10).build());
 
         try {
@@ -76,67 +112,75 @@ public class App {
     }
 
     public static void main(String[] args) {
-        stInstance = new App();
-        stInstance.init(args);
-    }
-
-    private void pipe(InputStream is, OutputStream os) throws IOException {
-        boolean flag = false;
-
-        while (is.available() > 0) {
-            byte[] byteBuf = new byte[is.available()];
-            int i = is.read(byteBuf);
-            if (i > -1) {
-                os.write(byteBuf);
-                flag = true;
+        // A running daemon takes script launches before anything else is loaded.
+        if (args.length > 0 && args[0].endsWith(".jsc")) {
+            Integer status = DaemonClient.tryRun(args);
+            if (status != null) {
+                System.exit(status);
             }
         }
 
-        if (flag) {
-            os.flush();
-        }
+        stInstance = new App();
+        stInstance.init(args);
     }
 
     private final Parameter FILE_HANDLER_PARAM = ParamBuilder.with().identifier("*.jsc").description("JSC File").handler(strings ->
     {
         try {
-            Path tempDir = Files.createTempDirectory("tmpjsccompile");
-
-            JSCHandler handler = new JSCHandler(strings[0]);
-            handler.writeClasses(tempDir);
-            handler.compileAll(tempDir);
-            handler.pack(tempDir);
-            String[] args = new String[strings.length + 2];
-
-            args[0] = "java";
-            args[1] = "-jar";
-            args[2] = "JSCRuntime.jar";
-
-            System.arraycopy(strings, 1, args, 3, strings.length - 1);
-
-            Process running = Runtime.getRuntime().exec(args);
-            InputStream ris = running.getInputStream();
-            while (running.isAlive()) {
-                while (ris.available() > 0) {
-                    byte[] byteBuf = new byte[ris.available()];
-                    int i = ris.read(byteBuf);
-                    if (i > -1) {
-                        System.out.print(new String(byteBuf));
-                    }
-                }
+            if (this.watch) {
+                new ScriptWatcher(this.settings).watch(strings[0], Arrays.copyOfRange(strings, 1, strings.length));
+                return;
+            }
 
-                pipe(System.in, running.getOutputStream());
-                Thread.sleep(1);
+            if (this.buildOutput != null) {
+                this.buildStandalone(strings[0], Arrays.copyOfRange(strings, 1, strings.length));
+                System.exit(0);
             }
 
-            System.exit(running.exitValue());
+            CdsArchives cds = new CdsArchives(this.settings);
+            int exitCode;
+            try (ScriptBuilder.Build build = new ScriptBuilder(this.settings).build(null, strings[0]);
+                 Profiler.Phase ignored = Profiler.phase("run")) {
+                File jar = build.getJar();
+                if (this.settings.RUN_IN_PROCESS) {
+                    InProcessRunner runner = new InProcessRunner(ScriptClassLoader.forJar(jar));
+                    exitCode = runner.run(Arrays.copyOfRange(strings, 1, strings.length));
+                } else {
+                    CdsArchives.ScriptArchive archive = cds.forScript(jar);
+                    exitCode = ScriptProcess.run(ScriptProcess.command(jar, Arrays.copyOfRange(strings, 1, strings.length), archive.getOptions()));
+                    archive.publish();
+                }
+            }
+            cds.refreshLauncherArchive();
+            System.exit(exitCode);
 
+        } catch (JSCException e) {
+            System.out.println(e.getMessage());
+            System.exit(-1);
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
         }
 
     }).acceptsInfiniteArgs("[Class] [Args...]").build();
 
+    private void buildStandalone(String jscFile, String[] args) throws IOException, InterruptedException {
+        String name = new File(jscFile).getName();
+        File out = new File(this.buildOutput.isEmpty() ? name.substring(0, name.length() - ".jsc".length()) + ".jar" : this.buildOutput);
+
+        ScriptBundler bundler = new ScriptBundler(this.settings);
+        bundler.bundle(jscFile, out);
+        System.out.println("Built " + out.getAbsolutePath() + ", run it with 'java -jar'.");
+
+        if (this.classList) {
+            File list = bundler.recordClassList(out, args);
+            if (list == null) {
+                System.out.println("[WARN] The run did not record a class list, it needs Java 9 or newer.");
+                return;
+            }
+            System.out.println("Recorded " + list.getAbsolutePath() + ". On the deploy host, create a CDS archive once with");
+            System.out.println("  java -Xshare:dump -XX:SharedClassListFile=" + list.getName() + " -XX:SharedArchiveFile=" + list.getName().replaceAll("\\.classlist$", ".jsa") + " -jar " + out.getName());
+        }
+    }
 
     private final IHandler CLEAR_SETTINGS_HANDLER = s -> {
         Scanner sc = new Scanner(System.in);
@@ -153,6 +197,111 @@ public class App {
             .priority((short) 10)
             .build();
 
+    private final IHandler DAEMON_HANDLER = s -> {
+        try {
+            new JSCDaemon(this.settings).serve();
+        } catch (IOException e) {
+            System.out.println("Could not start JSC daemon.");
+            e.printStackTrace();
+        }
+        System.exit(-1);
+    };
+
+    private final Parameter DAEMON_PARAM = ParamBuilder.with().identifier("--daemon").description("Keep a warm launcher running that later *.jsc launches connect to")
+            .handler(DAEMON_HANDLER)
+            .priority((short) 10)
+            .build();
+
+    private final Parameter WATCH_PARAM = ParamBuilder.with().identifier("--watch").description("Rebuild and restart the script whenever it or a file it uses changes")
+            .handler(s -> this.watch = true)
+            .priority((short) 10)
+            .build();
+
+    private final Parameter BUILD_PARAM = ParamBuilder.with().identifier("--build").description("Build the script into a standalone jar with its libraries merged in, instead of running it")
+            .handler(s -> this.buildOutput = s.length > 0 ? s[0] : "")
+            .acceptsInfiniteArgs("[Output jar]")
+            .priority((short) 10)
+            .build();
+
+    private final Parameter CLASS_LIST_PARAM = ParamBuilder.with().identifier("--class-list").description("With --build, run the jar once with the given arguments and record the classes it loads")
+            .handler(s -> this.classList = true)
+            .priority((short) 10)
+            .build();
+
+    private final IHandler PRECOMPILE_HANDLER = s -> {
+        if (s.length == 0) {
+            System.out.println("--precompile needs the directory of the scripts.");
+            System.exit(-1);
+        }
+
+        try {
+            int threads = s.length > 1 ? Integer.parseInt(s[1]) : Runtime.getRuntime().availableProcessors();
+            int failed = new ScriptPrecompiler(this.settings).precompile(new File(s[0]), threads);
+            System.exit(failed == 0 ? 0 : 1);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number of threads '" + s[1] + "'.");
+        } catch (JSCException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Could not precompile " + s[0] + ".");
+            e.printStackTrace();
+        }
+        System.exit(-1);
+    };
+
+    private final Parameter PRECOMPILE_PARAM = ParamBuilder.with().identifier("--precompile").description("Build every script in a directory into the artifact cache, several at once")
+            .handler(PRECOMPILE_HANDLER)
+            .acceptsInfiniteArgs("<Directory> [Threads]")
+            .priority((short) 10)
+            .build();
+
+    private final IHandler REPL_HANDLER = s -> {
+        try {
+            System.exit(new ScriptRepl().run());
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Could not start the prompt.");
+            e.printStackTrace();
+        }
+        System.exit(-1);
+    };
+
+    private final Parameter REPL_PARAM = ParamBuilder.with().identifier("--repl").description("Start a real-time prompt that compiles and runs each input as it is entered")
+            .handler(REPL_HANDLER)
+            .priority((short) 10)
+            .build();
+
+    private final Parameter PROFILE_PARAM = ParamBuilder.with().identifier("--profile").description("Print wall time, CPU time and allocation per build phase, and keep a history of runs")
+            .handler(s -> {
+                // Only registered for the help, init enables profiling ahead of the settings.
+            })
+            .priority((short) 10)
+            .build();
+
+    private final IHandler CDS_HANDLER = s -> {
+        CdsArchives cds = new CdsArchives(this.settings);
+        try {
+            if (cds.createLauncherArchive()) {
+                System.out.println("Created " + cds.getLauncherArchive() + ". Start the launcher with");
+                System.out.println("  -XX:SharedArchiveFile=" + cds.getLauncherArchive() + " -Xlog:cds*=off");
+                System.out.println("to use it. It is recreated in the background whenever the launcher jar or its JDK changes.");
+            } else {
+                System.out.println("The launcher CDS archive is already being created by another launch.");
+            }
+            System.exit(0);
+        } catch (JSCException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Could not create the launcher CDS archive.");
+            e.printStackTrace();
+        }
+        System.exit(-1);
+    };
+
+    private final Parameter CDS_PARAM = ParamBuilder.with().identifier("--cds").description("Create a class data sharing archive that makes the launcher start faster")
+            .handler(CDS_HANDLER)
+            .priority((short) 10)
+            .build();
+
     private final IHandler OPEN_SETTINGS_HANDLER = s -> {
         String os = System.getProperty("os.name").toLowerCase(Locale.ROOT);
         try {
@@ -0,0 +1,226 @@
+package com.github.xnen.cache;
+
+import com.github.xnen.decode.JSCParser;
+import com.github.xnen.settings.Settings;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * @author xnen
+ * Content-addressed store of packed script jars under the cache directory.
+ *
+ * The key is a SHA-256 over every JSC file reachable through 'using'/'ext', the global macros
+ * (script '!macro' lines are part of the hashed sources), the JDK location and compiler in use, whether
+ * jars are packed uncompressed, and the name, size and modification time of every jar in the library directory.
+ * Entries are evicted least recently used first once the store exceeds ARTIFACT_CACHE_MAX_MB, along with
+ * their CDS archives. Use is recorded on a '.used' marker, since a jar's modification time is part of what
+ * the JVM checks before sharing an archive of it.
+ */
+public class ArtifactCache {
+    private static final String FORMAT = "jsc-artifact-1";
+
+    /** Entries used this recently are never evicted, since a launch may be about to open them. */
+    private static final long EVICTION_GRACE_MILLIS = 60_000L;
+
+    /** Leftover temp files of crashed launches are deleted once they are this old. */
+    private static final long TEMP_FILE_MAX_AGE_MILLIS = 3_600_000L;
+
+    private final Settings settings;
+    private final File dir;
+
+    public ArtifactCache(Settings settings) {
+        this.settings = settings;
+        this.dir = new File(settings.getFormattedCacheDirectory(), "artifacts");
+    }
+
+    /**
+     * @param baseDir directory relative 'using'/'ext' names are resolved against, or null for the working directory
+     */
+    public String computeKey(File mainJsc, File baseDir) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, FORMAT);
+
+        // Reachable JSC sources, in discovery order.
+        for (File file : JSCParser.getReachableFiles(mainJsc, baseDir)) {
+            update(digest, file.getCanonicalPath());
+            digest.update(Files.readAllBytes(file.toPath()));
+        }
+
+        for (Map.Entry<String, String> macro : new TreeMap<>(this.settings.globalMacros).entrySet()) {
+            update(digest, macro.getKey());
+            update(digest, macro.getValue());
+        }
+
+        update(digest, this.settings.getJDKLocation());
+        update(digest, String.valueOf(this.settings.IN_MEMORY_COMPILE));
+        update(digest, String.valueOf(this.settings.PACK_UNCOMPRESSED));
+        update(digest, System.getProperty("java.home"));
+        update(digest, System.getProperty("java.version"));
+
+        String[] libraries = this.settings.getLibraries();
+        Arrays.sort(libraries);
+        for (String library : libraries) {
+            File jar = new File(this.settings.getFormattedLibDirectory(), library);
+            update(digest, library + ":" + jar.length() + ":" + jar.lastModified());
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the cached jar for the key, or null on a miss
+     */
+    public File lookup(String key) {
+        File jar = new File(this.dir, key + ".jar");
+        if (!jar.isFile()) {
+            return null;
+        }
+
+        this.markUsed(key);
+        return jar.isFile() ? jar : null;
+    }
+
+    /**
+     * @param jvmId identifies the JVM the archive is for, as archives only load into the JVM that dumped them
+     * @return the CDS archive file of a cached jar, or null if the jar is not from this cache
+     */
+    public File getCdsArchive(File jar, String jvmId) {
+        String name = jar.getName();
+        if (!name.endsWith(".jar") || !this.dir.equals(jar.getAbsoluteFile().getParentFile())) {
+            return null;
+        }
+        return new File(this.dir, name.substring(0, name.length() - ".jar".length()) + "-" + jvmId + ".jsa");
+    }
+
+    /**
+     * Publishes a packed jar under the key as it is, since JarWriter already sorts its entries and fixes their
+     * timestamps.
+     * @return the cached jar
+     */
+    public File store(String key, File packedJar) throws IOException {
+        if (!this.dir.exists() && !this.dir.mkdirs()) {
+            throw new IOException("Could not create artifact cache directory " + this.dir);
+        }
+
+        File target = new File(this.dir, key + ".jar");
+        if (target.isFile()) {
+            // Published by a concurrent launch. Its jar is the same and may already run, so it is kept as is.
+            this.markUsed(key);
+            return target;
+        }
+
+        File tmpFile = File.createTempFile(key, ".tmp", this.dir);
+        try {
+            Files.copy(packedJar.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+
+        this.markUsed(key);
+        this.evict();
+        return target;
+    }
+
+    /**
+     * Deletes least recently used entries until the store fits ARTIFACT_CACHE_MAX_MB.
+     * Runs under an exclusive file lock, so concurrent launches don't evict over each other, and within a launch
+     * one store at a time, as file locks are held per JVM.
+     */
+    private void evict() throws IOException {
+        long maxBytes = this.settings.ARTIFACT_CACHE_MAX_MB * 1024L * 1024L;
+
+        synchronized (ArtifactCache.class) {
+            this.evictLocked(maxBytes);
+        }
+    }
+
+    private void evictLocked(long maxBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(this.dir, ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            File[] files = this.dir.listFiles();
+            if (files == null) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            Map<String, List<File>> entries = new HashMap<>();
+            Map<String, Long> lastUsed = new HashMap<>();
+            long total = 0;
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(".tmp")) {
+                    // A modification time of 0 is a store that just moved its temp file into place.
+                    long modified = file.lastModified();
+                    if (modified != 0 && now - modified > TEMP_FILE_MAX_AGE_MILLIS && !file.delete()) {
+                        System.out.println("[WARN] Could not delete " + file + ".");
+                    }
+                    continue;
+                }
+
+                // Jars, markers and archives all start with the key.
+                int end = name.indexOf('-') >= 0 ? name.indexOf('-') : name.indexOf('.');
+                if (end <= 0) {
+                    continue;
+                }
+                String key = name.substring(0, end);
+                entries.computeIfAbsent(key, k -> new ArrayList<>()).add(file);
+                lastUsed.merge(key, file.lastModified(), Math::max);
+                total += file.length();
+            }
+            if (total <= maxBytes) {
+                return;
+            }
+
+            List<String> keys = new ArrayList<>(entries.keySet());
+            keys.sort(Comparator.comparingLong(lastUsed::get));
+            for (String key : keys) {
+                if (total <= maxBytes || now - lastUsed.get(key) < EVICTION_GRACE_MILLIS) {
+                    break;
+                }
+
+                for (File file : entries.get(key)) {
+                    long length = file.length();
+                    if (file.delete()) {
+                        total -= length;
+                    }
+                }
+            }
+        }
+    }
+
+    private void markUsed(String key) {
+        File marker = new File(this.dir, key + ".used");
+        try {
+            if (!marker.setLastModified(System.currentTimeMillis()) && !marker.createNewFile()) {
+                System.out.println("[WARN] Could not mark " + key + " as used in the artifact cache.");
+            }
+        } catch (IOException e) {
+            System.out.println("[WARN] Could not mark " + key + " as used in the artifact cache.");
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update((value == null ? "" : value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+}
@@ -0,0 +1,331 @@
+package com.github.xnen.cache;
+
+import com.github.xnen.App;
+import com.github.xnen.decode.JSCException;
+import com.github.xnen.settings.Settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * @author xnen
+ * Class data sharing (AppCDS) archives, so script and launcher JVMs map the JDK and library classes they
+ * need instead of loading and verifying them again on every start. Uses dynamic archives, which need
+ * Java 13 or newer on the JVM in question.
+ *
+ * A cached script gets an archive next to its artifact jar, dumped when the script first exits and shared
+ * by every later run. The archive name includes the java on the PATH, which runs scripts, so a different
+ * JDK dumps its own. A changed script or library already gets a new artifact jar, and with it a new archive.
+ *
+ * The launcher archive is created by --cds in a training run, and regenerated in the background once the
+ * launcher jar or the JDK running it changed.
+ */
+public class CdsArchives {
+    private static final int MIN_JAVA_VERSION = 13;
+
+    /** Keeps CDS warnings, i.e. about an archive being skipped, out of the script's output. */
+    private static final String QUIET = "-Xlog:cds*=off";
+
+    private final Settings settings;
+    private final ArtifactCache cache;
+    private final File dir;
+
+    public CdsArchives(Settings settings) {
+        this.settings = settings;
+        this.cache = new ArtifactCache(settings);
+        this.dir = new File(settings.getFormattedCacheDirectory(), "cds");
+    }
+
+    /**
+     * @return how a child running the jar uses its archive, or doesn't if the jar is not cached or the
+     * child's java is too old
+     */
+    public ScriptArchive forScript(File jar) {
+        if (!this.settings.CDS_ARCHIVES) {
+            return ScriptArchive.NONE;
+        }
+
+        Jvm jvm = Jvm.onPath();
+        if (jvm == null || jvm.version < MIN_JAVA_VERSION) {
+            return ScriptArchive.NONE;
+        }
+
+        File archive = this.cache.getCdsArchive(jar, jvm.id);
+        if (archive == null) {
+            return ScriptArchive.NONE;
+        }
+
+        if (archive.isFile()) {
+            return new ScriptArchive(Arrays.asList(QUIET, "-XX:SharedArchiveFile=" + archive.getAbsolutePath()), null, null);
+        }
+
+        // Dump to a private file, so concurrent first runs don't write over each other.
+        try {
+            File dump = File.createTempFile(archive.getName() + ".", ".tmp", archive.getParentFile());
+            return new ScriptArchive(Arrays.asList(QUIET, "-XX:ArchiveClassesAtExit=" + dump.getAbsolutePath()), dump, archive);
+        } catch (IOException e) {
+            return ScriptArchive.NONE;
+        }
+    }
+
+    /**
+     * The launcher archive, which the launcher uses when started with -XX:SharedArchiveFile pointing to it.
+     */
+    public File getLauncherArchive() {
+        return new File(this.dir, "launcher.jsa");
+    }
+
+    /**
+     * Dumps the launcher archive from a training run of CdsTraining in a child of the launcher's own JDK.
+     * Concurrent calls, i.e. from background refreshes, create it only once.
+     * @return false if another launch is already creating it
+     */
+    public boolean createLauncherArchive() throws IOException, InterruptedException {
+        File launcherJar = getLauncherJar();
+        if (!launcherJar.isFile()) {
+            throw new JSCException("The launcher has to run from its jar to create a CDS archive, not from " + launcherJar + ".");
+        }
+
+        Jvm jvm = Jvm.current();
+        if (jvm == null || jvm.version < MIN_JAVA_VERSION) {
+            throw new JSCException("CDS archives need Java " + MIN_JAVA_VERSION + " or newer, the launcher runs on " + System.getProperty("java.version") + ".");
+        }
+
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("Could not create CDS directory " + this.dir);
+        }
+
+        try (FileChannel channel = FileChannel.open(new File(this.dir, ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                return false;
+            }
+
+            File archive = this.getLauncherArchive();
+            File dump = File.createTempFile(archive.getName() + ".", ".tmp", this.dir);
+            Path workDir = Files.createTempDirectory("tmpjsccds");
+            try {
+                List<String> command = new ArrayList<>();
+                command.add(jvm.getJava().getPath());
+                command.add(QUIET);
+                command.add("-XX:ArchiveClassesAtExit=" + dump.getAbsolutePath());
+                // Same settings file as this launch.
+                command.add("-Duser.home=" + System.getProperty("user.home"));
+                command.add("-cp");
+                command.add(launcherJar.getAbsolutePath());
+                command.add(CdsTraining.class.getName());
+
+                int exitCode = new ProcessBuilder(command)
+                        .directory(workDir.toFile())
+                        .redirectErrorStream(true)
+                        .redirectOutput(new File(this.dir, "training.log"))
+                        .start()
+                        .waitFor();
+
+                if (exitCode != 0 || dump.length() == 0) {
+                    throw new JSCException("The CDS training run failed, see " + new File(this.dir, "training.log") + ".");
+                }
+
+                Files.move(dump.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.write(new File(this.dir, "launcher.key").toPath(), launcherKey(launcherJar, jvm).getBytes(StandardCharsets.UTF_8));
+                return true;
+            } finally {
+                Files.deleteIfExists(dump.toPath());
+                Workspace.deleteTree(workDir.toFile());
+            }
+        }
+    }
+
+    /**
+     * Starts recreating the launcher archive in the background if one was created before and no longer
+     * matches the launcher jar or its JDK. Does nothing until --cds was used once.
+     */
+    public void refreshLauncherArchive() {
+        File keyFile = new File(this.dir, "launcher.key");
+        if (!this.settings.CDS_ARCHIVES || !keyFile.isFile()) {
+            return;
+        }
+
+        File launcherJar = getLauncherJar();
+        Jvm jvm = Jvm.current();
+        if (!launcherJar.isFile() || jvm == null || jvm.version < MIN_JAVA_VERSION) {
+            return;
+        }
+
+        try {
+            String key = launcherKey(launcherJar, jvm);
+            if (key.equals(new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.UTF_8))) {
+                return;
+            }
+
+            // Already being recreated.
+            try (FileChannel channel = FileChannel.open(new File(this.dir, ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.tryLock()) {
+                if (lock == null) {
+                    return;
+                }
+            }
+
+            new ProcessBuilder(jvm.getJava().getPath(), "-Duser.home=" + System.getProperty("user.home"),
+                    "-cp", launcherJar.getAbsolutePath(), App.class.getName(), "--cds")
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(this.dir, "refresh.log"))
+                    .start();
+        } catch (IOException e) {
+            System.out.println("[WARN] Could not refresh the launcher CDS archive.");
+        }
+    }
+
+    private static File getLauncherJar() {
+        return new File(App.class.getProtectionDomain().getCodeSource().getLocation().getPath());
+    }
+
+    private static String launcherKey(File launcherJar, Jvm jvm) {
+        return launcherJar.getAbsolutePath() + ":" + launcherJar.length() + ":" + launcherJar.lastModified() + ":" + jvm.id;
+    }
+
+    /**
+     * JVM options of a child running a cached script, and publishing the archive the child dumped.
+     */
+    public static class ScriptArchive {
+        static final ScriptArchive NONE = new ScriptArchive(Collections.<String>emptyList(), null, null);
+
+        private final List<String> options;
+        private final File dump;
+        private final File archive;
+
+        ScriptArchive(List<String> options, File dump, File archive) {
+            this.options = options;
+            this.dump = dump;
+            this.archive = archive;
+        }
+
+        public List<String> getOptions() {
+            return this.options;
+        }
+
+        /**
+         * Moves the archive the child dumped on exit into place. Call once the child exited.
+         */
+        public void publish() {
+            if (this.dump == null) {
+                return;
+            }
+
+            try {
+                if (this.dump.length() > 0) {
+                    Files.move(this.dump.toPath(), this.archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                Files.deleteIfExists(this.dump.toPath());
+            } catch (IOException e) {
+                System.out.println("[WARN] Could not store the CDS archive " + this.archive + ".");
+            }
+        }
+    }
+
+    /**
+     * A JDK, identified by its real location and its release file, which changes with every update.
+     */
+    static class Jvm {
+        final File home;
+        final int version;
+        final String id;
+
+        private Jvm(File home, int version, String id) {
+            this.home = home;
+            this.version = version;
+            this.id = id;
+        }
+
+        File getJava() {
+            return new File(new File(this.home, "bin"), isWindows() ? "java.exe" : "java");
+        }
+
+        /**
+         * @return the JDK of the 'java' that ScriptProcess runs, or null if it can't be told
+         */
+        static Jvm onPath() {
+            String path = System.getenv("PATH");
+            if (path == null) {
+                return null;
+            }
+
+            for (String entry : path.split(File.pathSeparator)) {
+                File java = new File(entry, isWindows() ? "java.exe" : "java");
+                if (java.isFile()) {
+                    try {
+                        return of(java.toPath().toRealPath().getParent().getParent().toFile());
+                    } catch (IOException | NullPointerException e) {
+                        return null;
+                    }
+                }
+            }
+            return null;
+        }
+
+        static Jvm current() {
+            return of(new File(System.getProperty("java.home")));
+        }
+
+        private static Jvm of(File home) {
+            File release = new File(home, "release");
+            if (!release.isFile()) {
+                return null;
+            }
+
+            try {
+                byte[] bytes = Files.readAllBytes(release.toPath());
+                int version = 0;
+                for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+                    if (line.startsWith("JAVA_VERSION=")) {
+                        version = parseVersion(line.substring("JAVA_VERSION=".length()).replace("\"", "").trim());
+                    }
+                }
+
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(home.getPath().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(bytes);
+
+                StringBuilder id = new StringBuilder();
+                for (byte b : Arrays.copyOf(digest.digest(), 8)) {
+                    id.append(String.format("%02x", b));
+                }
+                return new Jvm(home, version, id.toString());
+            } catch (IOException | NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return the feature version, i.e. 8 for 1.8.0_392 and 17 for 17.0.9
+         */
+        private static int parseVersion(String version) {
+            String[] parts = version.split("[._+-]");
+            try {
+                int first = Integer.parseInt(parts[0]);
+                return first == 1 && parts.length > 1 ? Integer.parseInt(parts[1]) : first;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private static boolean isWindows() {
+            return System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("windows");
+        }
+    }
+}
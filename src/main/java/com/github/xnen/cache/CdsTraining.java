@@ -0,0 +1,60 @@
+package com.github.xnen.cache;
+
+import com.github.xnen.App;
+import com.github.xnen.run.InProcessRunner;
+import com.github.xnen.run.ScriptBuilder;
+import com.github.xnen.run.ScriptClassLoader;
+import com.github.xnen.settings.Settings;
+import com.google.gson.Gson;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * @author xnen
+ * The workload the launcher CDS archive is dumped from. Builds and runs a small script like a launch does,
+ * so the classes for loading settings, parsing, resolving imports, compiling and packing are all archived.
+ * Runs in a temp working directory, see CdsArchives.createLauncherArchive.
+ */
+public final class CdsTraining {
+    private static final String MAIN =
+            "import List;\n" +
+            "import ArrayList;\n" +
+            "import Collectors;\n" +
+            "using \"Util\";\n" +
+            "List<String> words = new ArrayList<>();\n" +
+            "words.add(\"class\");\n" +
+            "words.add(\"data\");\n" +
+            "words.add(\"sharing\");\n" +
+            "#print(words.stream().map(String::toUpperCase).collect(Collectors.joining(\" \")) + \" \" + Util.twice(words.size()));\n";
+
+    private static final String UTIL = "public static int twice(int a) { return a * 2; }\n";
+
+    private CdsTraining() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Settings settings = new Settings();
+        if (App.SETTINGS_FILE.exists()) {
+            try (Reader reader = new FileReader(App.SETTINGS_FILE)) {
+                settings = new Gson().fromJson(reader, Settings.class);
+            }
+        }
+        // Always compile, and keep the training script out of the artifact cache.
+        settings.ARTIFACT_CACHE = false;
+        App.stInstance = new App(settings);
+
+        Files.write(Paths.get("Util.jsc"), UTIL.getBytes(StandardCharsets.UTF_8));
+        Files.write(Paths.get("Training.jsc"), MAIN.getBytes(StandardCharsets.UTF_8));
+
+        int exitCode;
+        try (ScriptBuilder.Build build = new ScriptBuilder(settings).build(null, "Training.jsc")) {
+            exitCode = new InProcessRunner(ScriptClassLoader.forJar(build.getJar())).run(new String[0]);
+        }
+        System.exit(exitCode);
+    }
+}
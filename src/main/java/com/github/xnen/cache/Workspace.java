@@ -0,0 +1,130 @@
+package com.github.xnen.cache;
+
+import com.github.xnen.settings.Settings;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author xnen
+ * A build's private directory under the cache directory, for its generated sources, class files and, without
+ * the artifact cache, its jar. Concurrent launches each get their own, so they never overwrite each other's
+ * output. A workspace is locked while open and deleted when closed, or when the launcher exits, i.e. after a
+ * script called System.exit. Those of launches that died are deleted by a later launch, once nothing holds
+ * their lock.
+ */
+public final class Workspace implements Closeable {
+    private static final String LOCK_FILE = ".lock";
+
+    /** Workspaces this new may not be locked yet by the launch that created them. */
+    private static final long ABANDONED_AFTER_MILLIS = 60_000L;
+
+    private static final Set<Workspace> OPEN = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Workspace workspace : OPEN) {
+                deleteTree(workspace.dir);
+            }
+        }, "jsc-workspaces"));
+    }
+
+    private final File dir;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    private Workspace(File dir) throws IOException {
+        this.dir = dir;
+        this.lockChannel = FileChannel.open(new File(dir, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lock = this.lockChannel.lock();
+        OPEN.add(this);
+    }
+
+    /**
+     * Creates and locks a new workspace, deleting abandoned ones first.
+     */
+    public static Workspace create(Settings settings) throws IOException {
+        File root = new File(settings.getFormattedCacheDirectory(), "workspaces");
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Could not create workspace directory " + root);
+        }
+
+        deleteAbandoned(root);
+        return new Workspace(Files.createTempDirectory(root.toPath(), "run").toFile());
+    }
+
+    public File getDir() {
+        return this.dir;
+    }
+
+    /**
+     * Unlocks and deletes the workspace. Files still open elsewhere, i.e. a jar a script's loader holds on
+     * Windows, are left to the launch that deletes abandoned workspaces.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!OPEN.remove(this)) {
+            return;
+        }
+
+        try {
+            this.lock.release();
+        } finally {
+            this.lockChannel.close();
+        }
+        deleteTree(this.dir);
+    }
+
+    private static void deleteAbandoned(File root) {
+        File[] dirs = root.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (File dir : dirs) {
+            long modified = dir.lastModified();
+            if (modified == 0 || now - modified < ABANDONED_AFTER_MILLIS) {
+                continue;
+            }
+
+            File lockFile = new File(dir, LOCK_FILE);
+            if (lockFile.isFile()) {
+                try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE);
+                     FileLock lock = channel.tryLock()) {
+                    if (lock == null) {
+                        continue;
+                    }
+                } catch (IOException | OverlappingFileLockException e) {
+                    // Held by this JVM, or deleted by another launch meanwhile.
+                    continue;
+                }
+            }
+            deleteTree(dir);
+        }
+    }
+
+    /**
+     * Deletes a file or directory tree. Whatever can't be deleted yet, e.g. a jar still open on Windows, is
+     * deleted on exit instead. Used for every temporary directory, so all of them are cleaned up the same way.
+     */
+    public static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.xnen.daemon;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * @author xnen
+ * Thin client for a running JSCDaemon. Deliberately needs nothing but the port file, so a launch through
+ * the daemon skips loading settings entirely.
+ */
+public class DaemonClient {
+    private static final int CONNECT_TIMEOUT_MILLIS = 250;
+
+    private DaemonClient() {
+    }
+
+    /**
+     * Runs the script on the daemon, if one is running.
+     * @return the script's exit code, or null if no daemon could be reached
+     */
+    public static Integer tryRun(String[] args) {
+        if (!DaemonProtocol.PORT_FILE.isFile()) {
+            return null;
+        }
+
+        String[] portAndToken;
+        try {
+            portAndToken = new String(Files.readAllBytes(DaemonProtocol.PORT_FILE.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+        } catch (IOException e) {
+            return null;
+        }
+        if (portAndToken.length != 2) {
+            return null;
+        }
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(portAndToken[0])), CONNECT_TIMEOUT_MILLIS);
+        } catch (IOException | NumberFormatException e) {
+            // Stale port file, the daemon isn't running.
+            return null;
+        }
+
+        try (Socket s = socket) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            out.writeUTF(portAndToken[1]);
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            Thread stdin = new Thread(() -> forwardInput(out), "jsc-client-stdin");
+            stdin.setDaemon(true);
+            stdin.start();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                byte type = in.readByte();
+                int length = in.readInt();
+
+                if (type == DaemonProtocol.EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return in.readInt();
+                }
+
+                PrintStream target = type == DaemonProtocol.STDERR ? System.err : System.out;
+                while (length > 0) {
+                    int read = in.read(buffer, 0, Math.min(length, buffer.length));
+                    if (read == -1) {
+                        throw new EOFException();
+                    }
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+                if (in.available() == 0) {
+                    target.flush();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Lost connection to JSC daemon: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static void forwardInput(DataOutputStream out) {
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            int read;
+            while ((read = System.in.read(buffer)) != -1) {
+                DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, read);
+            }
+            DaemonProtocol.writeFrame(out, DaemonProtocol.STDIN, buffer, 0, 0);
+        } catch (IOException ignored) {
+            // Script finished before input did.
+        }
+    }
+}
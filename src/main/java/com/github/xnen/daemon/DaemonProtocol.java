@@ -0,0 +1,68 @@
+package com.github.xnen.daemon;
+
+import java.io.*;
+
+/**
+ * @author xnen
+ * Wire format between DaemonClient and JSCDaemon, over a loopback socket.
+ *
+ * The client opens with: UTF token, UTF working directory, int argc, argc * UTF arg.
+ * After that both sides exchange frames of: byte type, int length, length bytes.
+ * STDIN frames go to the daemon (an empty one marks end of input), STDOUT, STDERR and a final
+ * EXIT frame (int status as payload) go to the client.
+ */
+final class DaemonProtocol {
+    static final byte STDIN = 0;
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    /** Port and token of the running daemon. Only readable by the owner. */
+    static final File PORT_FILE = new File(System.getProperty("user.home"), ".javart-daemon");
+
+    private DaemonProtocol() {
+    }
+
+    static void writeFrame(DataOutputStream out, byte type, byte[] bytes, int offset, int length) throws IOException {
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeInt(length);
+            out.write(bytes, offset, length);
+            out.flush();
+        }
+    }
+
+    static void writeExit(DataOutputStream out, int status) throws IOException {
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(4);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    /**
+     * Output stream that sends everything written to it as frames of one type.
+     */
+    static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                writeFrame(this.out, this.type, b, off, len);
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.github.xnen.daemon;
+
+import com.github.xnen.cache.CdsArchives;
+import com.github.xnen.decode.ImportResolver;
+import com.github.xnen.decode.JSCCompiler;
+import com.github.xnen.decode.JSCException;
+import com.github.xnen.run.InProcessRunner;
+import com.github.xnen.run.ScriptBuilder;
+import com.github.xnen.run.ScriptClassLoader;
+import com.github.xnen.run.ScriptProcess;
+import com.github.xnen.settings.Settings;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author xnen
+ * Resident launcher. Keeps settings, the import index, the artifact cache and the compiler warm and runs
+ * scripts for DaemonClient connections, forwarding their arguments, standard streams and exit code.
+ *
+ * Scripts run in-process with library class loaders shared between requests, unless System.exit can't be
+ * trapped on this runtime, in which case each request gets a child JVM. Requests from another working directory
+ * than the daemon's also get a child JVM, started in the client's directory, since relative files resolve
+ * against the working directory of the whole JVM.
+ *
+ * Builds take an in-process compiler from a pool that grows to the number of requests building at once. The
+ * pool is emptied whenever a library jar changes, as a compiler's file manager keeps the jars it opened.
+ */
+public class JSCDaemon {
+    private final Settings settings;
+    private final ScriptBuilder builder;
+    private final CdsArchives cds;
+    private final ScriptClassLoader.SharedLibraries sharedLibraries = new ScriptClassLoader.SharedLibraries();
+    private final Queue<JSCCompiler> compilers = new ConcurrentLinkedQueue<>();
+    /** Libraries the pooled compilers were opened against. */
+    private volatile String compilerLibraries;
+    private final File workingDir;
+    private final String token;
+    private boolean inProcess;
+
+    public JSCDaemon(Settings settings) {
+        this.settings = settings;
+        this.builder = new ScriptBuilder(settings);
+        this.workingDir = canonical(new File("").getAbsoluteFile());
+        this.cds = new CdsArchives(settings);
+
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        this.token = token.toString();
+    }
+
+    /**
+     * Serves requests until the process is stopped.
+     */
+    public void serve() throws IOException {
+        this.inProcess = InProcessRunner.trapExit();
+        RequestStreams.install();
+        this.warmUp();
+
+        ExecutorService executor = newRequestExecutor();
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            this.writePortFile(server.getLocalPort());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (!DaemonProtocol.PORT_FILE.delete()) {
+                    DaemonProtocol.PORT_FILE.deleteOnExit();
+                }
+            }));
+
+            System.out.println("JSC daemon listening on 127.0.0.1:" + server.getLocalPort()
+                    + (this.inProcess ? "" : " (scripts run in child JVMs, System.exit can't be trapped here)"));
+
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+                executor.execute(() -> this.handle(socket));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads the import index and runs the compiler once, so the first request doesn't pay for it.
+     */
+    private void warmUp() {
+        try {
+            this.builder.getImportResolver().resolve("java.lang.Object", null);
+            String libraries = ImportResolver.getLibrariesSignature();
+            JSCCompiler compiler = this.takeCompiler(libraries);
+            if (compiler != null) {
+                compiler.warmUp();
+                this.returnCompiler(compiler, libraries);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("[WARN] Could not warm up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param libraries the current ImportResolver.getLibrariesSignature()
+     * @return a pooled compiler, a new one if all are in use, or null when scripts are compiled by forking javac
+     */
+    private JSCCompiler takeCompiler(String libraries) {
+        if (!this.settings.IN_MEMORY_COMPILE || !JSCCompiler.isAvailable()) {
+            return null;
+        }
+
+        synchronized (this.compilers) {
+            if (!libraries.equals(this.compilerLibraries)) {
+                this.compilerLibraries = libraries;
+                for (JSCCompiler stale; (stale = this.compilers.poll()) != null; ) {
+                    close(stale);
+                }
+            }
+            JSCCompiler compiler = this.compilers.poll();
+            if (compiler != null) {
+                return compiler;
+            }
+        }
+        return new JSCCompiler();
+    }
+
+    /**
+     * Pools the compiler again, or closes it if the libraries changed since it was taken.
+     */
+    private void returnCompiler(JSCCompiler compiler, String libraries) {
+        synchronized (this.compilers) {
+            if (libraries.equals(this.compilerLibraries)) {
+                this.compilers.add(compiler);
+                return;
+            }
+        }
+        close(compiler);
+    }
+
+    private static void close(JSCCompiler compiler) {
+        try {
+            compiler.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            if (!this.token.equals(in.readUTF())) {
+                return;
+            }
+
+            File workingDir = new File(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            QueueInputStream stdin = new QueueInputStream();
+            Thread reader = new Thread(() -> readInput(in, stdin), "jsc-daemon-stdin");
+            reader.setDaemon(true);
+            reader.start();
+
+            PrintStream stdout = new PrintStream(new BufferedOutputStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.STDOUT), 32 * 1024), false);
+            PrintStream stderr = new PrintStream(new BufferedOutputStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.STDERR), 32 * 1024), false);
+
+            int status;
+            RequestStreams.set(new RequestStreams(stdin, stdout, stderr));
+            try {
+                status = this.run(workingDir, args, stdin, stdout, stderr);
+            } finally {
+                RequestStreams.clear();
+                stdout.flush();
+                stderr.flush();
+            }
+
+            DaemonProtocol.writeExit(out, status);
+        } catch (IOException e) {
+            // Client went away.
+        }
+    }
+
+    private int run(File workingDir, String[] args, InputStream stdin, PrintStream stdout, PrintStream stderr) {
+        try (ScriptBuilder.Build build = this.build(workingDir, args[0])) {
+            File jar = build.getJar();
+            String[] scriptArgs = Arrays.copyOfRange(args, 1, args.length);
+
+            if (this.inProcess && this.workingDir.equals(canonical(workingDir))) {
+                ScriptClassLoader loader = ScriptClassLoader.forJar(jar, this.sharedLibraries);
+                return new InProcessRunner(loader).run(scriptArgs);
+            }
+
+            CdsArchives.ScriptArchive archive = this.cds.forScript(jar);
+            int exitCode = ScriptProcess.run(ScriptProcess.command(jar, scriptArgs, archive.getOptions()), workingDir, stdin, stdout, stderr);
+            archive.publish();
+            return exitCode;
+        } catch (JSCException e) {
+            stdout.println(e.getMessage());
+            return -1;
+        } catch (IOException e) {
+            e.printStackTrace(stderr);
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private ScriptBuilder.Build build(File workingDir, String jscFile) throws IOException {
+        String libraries = ImportResolver.getLibrariesSignature();
+        JSCCompiler compiler = this.takeCompiler(libraries);
+        try {
+            return this.builder.build(workingDir, jscFile, compiler);
+        } finally {
+            if (compiler != null) {
+                this.returnCompiler(compiler, libraries);
+            }
+        }
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private static void readInput(DataInputStream in, QueueInputStream stdin) {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                if (type == DaemonProtocol.STDIN) {
+                    stdin.offer(bytes);
+                }
+            }
+        } catch (IOException e) {
+            stdin.end();
+        }
+    }
+
+    private void writePortFile(int port) throws IOException {
+        File file = DaemonProtocol.PORT_FILE;
+        Files.write(file.toPath(), new byte[0]);
+        try {
+            Files.setPosixFilePermissions(file.toPath(), EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+        } catch (UnsupportedOperationException ignored) {
+            // Not a POSIX file system, the home directory's permissions apply.
+        }
+        Files.write(file.toPath(), (port + " " + this.token).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Virtual threads where the runtime has them (Java 21+), a cached pool of daemon threads otherwise.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "jsc-daemon-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
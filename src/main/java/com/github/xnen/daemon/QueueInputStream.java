@@ -0,0 +1,64 @@
+package com.github.xnen.daemon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * @author xnen
+ * Input stream fed with chunks from another thread, i.e. STDIN frames of a daemon client.
+ */
+class QueueInputStream extends InputStream {
+    private static final byte[] EOF = new byte[0];
+
+    private final LinkedBlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+    private byte[] current;
+    private int position;
+
+    void offer(byte[] chunk) {
+        this.chunks.add(chunk.length == 0 ? EOF : chunk);
+    }
+
+    void end() {
+        this.chunks.add(EOF);
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        byte[] b = new byte[1];
+        return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (this.current == null || this.position == this.current.length) {
+            if (this.current == EOF) {
+                return -1;
+            }
+            try {
+                this.current = this.chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for input", e);
+            }
+            this.position = 0;
+            if (this.current == EOF) {
+                return -1;
+            }
+        }
+
+        int count = Math.min(len, this.current.length - this.position);
+        System.arraycopy(this.current, this.position, b, off, count);
+        this.position += count;
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        return this.current == null || this.current == EOF ? 0 : this.current.length - this.position;
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.xnen.daemon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * @author xnen
+ * Routes System.in, System.out and System.err to the streams of the daemon request a thread belongs to.
+ * The request is inherited by every thread a script starts; threads outside any request use the
+ * daemon's own streams.
+ */
+final class RequestStreams {
+    private static final InheritableThreadLocal<RequestStreams> CURRENT = new InheritableThreadLocal<>();
+
+    private final InputStream in;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    RequestStreams(InputStream in, PrintStream out, PrintStream err) {
+        this.in = in;
+        this.out = out;
+        this.err = err;
+    }
+
+    static void install() {
+        final InputStream in = System.in;
+        final PrintStream out = System.out;
+        final PrintStream err = System.err;
+
+        System.setIn(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return input(in).read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return input(in).read(b, off, len);
+            }
+
+            @Override
+            public int available() throws IOException {
+                return input(in).available();
+            }
+        });
+        System.setOut(new PrintStream(new RoutingOutputStream(out, false), true));
+        System.setErr(new PrintStream(new RoutingOutputStream(err, true), true));
+    }
+
+    static void set(RequestStreams streams) {
+        CURRENT.set(streams);
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+
+    private static InputStream input(InputStream fallback) {
+        RequestStreams streams = CURRENT.get();
+        return streams == null ? fallback : streams.in;
+    }
+
+    private static class RoutingOutputStream extends OutputStream {
+        private final PrintStream fallback;
+        private final boolean err;
+
+        RoutingOutputStream(PrintStream fallback, boolean err) {
+            this.fallback = fallback;
+            this.err = err;
+        }
+
+        private PrintStream target() {
+            RequestStreams streams = CURRENT.get();
+            if (streams == null) {
+                return this.fallback;
+            }
+            return this.err ? streams.err : streams.out;
+        }
+
+        @Override
+        public void write(int b) {
+            this.target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            this.target().flush();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.xnen.decode;
+
+import java.util.List;
+
+/**
+ * @author xnen
+ * Class and package names that imports are resolved against, from a jar or from the JDK's module image.
+ */
+interface ClassIndex {
+    /**
+     * @return the path that 'from' restrictions are matched against
+     */
+    String getPath();
+
+    /**
+     * @return the classpath entry that classes found here need, or null for classes the JDK provides itself
+     */
+    String getLibrary();
+
+    /**
+     * @param name simple or (partially) qualified class name, i.e. List, util.List or java.util.List
+     * @return fully qualified names of every class whose name ends with the given name
+     */
+    List<String> findClasses(String name);
+
+    /**
+     * @param name simple or (partially) qualified package name, i.e. util or java.util
+     * @return fully qualified names of every package whose name ends with the given name
+     */
+    List<String> findPackages(String name);
+}
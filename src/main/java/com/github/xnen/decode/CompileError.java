@@ -0,0 +1,43 @@
+package com.github.xnen.decode;
+
+/**
+ * @author xnen
+ * A single compiler error, reported against the generated Java source of a JSC class.
+ */
+class CompileError {
+    private final JSCClass jscClass;
+    private final long lineNumber;
+    private final String message;
+    private final String line;
+
+    CompileError(JSCClass jscClass, long lineNumber, String message, String line) {
+        this.jscClass = jscClass;
+        this.lineNumber = lineNumber;
+        this.message = message;
+        this.line = line;
+    }
+
+    /**
+     * @return the class the error was reported in, or null if it could not be attributed
+     */
+    JSCClass getJSCClass() {
+        return this.jscClass;
+    }
+
+    String getMessage() {
+        return this.message;
+    }
+
+    /**
+     * @return the offending line of generated source, or an empty string if unknown
+     */
+    String getLine() {
+        return this.line;
+    }
+
+    @Override
+    public String toString() {
+        String fileName = this.jscClass == null ? "" : this.jscClass.getClassNameNoExtension() + ".java";
+        return fileName + ":" + this.lineNumber + ": error: " + this.message + System.lineSeparator() + this.line;
+    }
+}
@@ -0,0 +1,253 @@
+package com.github.xnen.decode;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+
+/**
+ * @author xnen
+ * Splits the classes of a compile into groups javac can compile apart. Groups are the strongly connected
+ * components of the classes' references, i.e. their 'using' classes and those of the classes they 'ext', which
+ * the extended methods call. Components of the same depth don't reference each other, so each depth is spread
+ * over batches compiled at once, and compiled against the class files of the depths before it.
+ *
+ * Consecutive depths of a single component, i.e. a chain of scripts each using the next, can't be spread and
+ * are compiled as one batch, so a project gains invocations only where they run side by side.
+ */
+final class CompileGroups {
+    /** Generated Java below which a compile stays in one batch, as each batch adds a javac's own startup. */
+    private static final long MIN_SPLIT_SIZE = 256 * 1024;
+
+    /** Batches compiled one after another, those of a stage at once. */
+    private final List<List<List<JSCClass>>> stages = new ArrayList<>();
+
+    private CompileGroups() {
+    }
+
+    /**
+     * @param parallelism most batches a stage is split into
+     * @param size weight of a class, i.e. the length of its source, to spread a depth over batches evenly
+     */
+    static CompileGroups plan(List<JSCClass> classes, int parallelism, ToLongFunction<JSCClass> size) {
+        CompileGroups groups = new CompileGroups();
+        long total = 0;
+        for (JSCClass jscClass : classes) {
+            total += size.applyAsLong(jscClass);
+        }
+        if (parallelism < 2 || total < MIN_SPLIT_SIZE) {
+            groups.stages.add(Collections.singletonList(classes));
+            return groups;
+        }
+
+        List<JSCClass> chain = new ArrayList<>();
+        for (List<List<JSCClass>> depth : byDepth(classes)) {
+            if (depth.size() == 1) {
+                for (List<JSCClass> component : depth) {
+                    chain.addAll(component);
+                }
+                continue;
+            }
+
+            if (!chain.isEmpty()) {
+                groups.stages.add(Collections.singletonList(chain));
+                chain = new ArrayList<>();
+            }
+            groups.stages.add(spread(depth, parallelism, size));
+        }
+        if (!chain.isEmpty()) {
+            groups.stages.add(Collections.singletonList(chain));
+        }
+        return groups;
+    }
+
+    /**
+     * @return false if every class is compiled in one batch, as without groups
+     */
+    boolean isSplit() {
+        return this.stages.size() > 1 || (this.stages.size() == 1 && this.stages.get(0).size() > 1);
+    }
+
+    /**
+     * @return the most batches compiled at once
+     */
+    int getWidth() {
+        int width = 1;
+        for (List<List<JSCClass>> stage : this.stages) {
+            width = Math.max(width, stage.size());
+        }
+        return width;
+    }
+
+    /**
+     * Compiles stage after stage, the batches of a stage on the pool. Stops after the first stage with errors,
+     * as later ones depend on its classes.
+     * @return the errors of the failed stage, or an empty list
+     */
+    List<CompileError> compile(ExecutorService pool, Batch batch) throws InterruptedException {
+        for (List<List<JSCClass>> stage : this.stages) {
+            List<Future<List<CompileError>>> results = new ArrayList<>();
+            for (List<JSCClass> classes : stage) {
+                results.add(pool.submit(() -> batch.compile(classes)));
+            }
+
+            List<CompileError> errors = new ArrayList<>();
+            for (Future<List<CompileError>> result : results) {
+                try {
+                    errors.addAll(result.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException("Compile worker failed", cause);
+                }
+            }
+            if (!errors.isEmpty()) {
+                return errors;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the strongly connected components of the classes, grouped by depth, where a component's depth is
+     * one more than the deepest component it references
+     */
+    private static List<List<List<JSCClass>>> byDepth(List<JSCClass> classes) {
+        Map<JSCClass, Set<JSCClass>> references = new LinkedHashMap<>();
+        for (JSCClass jscClass : classes) {
+            references.put(jscClass, new LinkedHashSet<>());
+        }
+        for (JSCClass jscClass : classes) {
+            Set<JSCClass> referenced = references.get(jscClass);
+            addReferences(referenced, jscClass, references.keySet());
+            for (JSCClass ext : jscClass.getMethodExtensions()) {
+                addReferences(referenced, ext, references.keySet());
+            }
+        }
+
+        // Components come out of Tarjan's algorithm after every component they reference.
+        Tarjan tarjan = new Tarjan(references);
+        for (JSCClass jscClass : classes) {
+            if (!tarjan.index.containsKey(jscClass)) {
+                tarjan.visit(jscClass);
+            }
+        }
+
+        Map<JSCClass, Integer> depthOf = new HashMap<>();
+        List<List<List<JSCClass>>> depths = new ArrayList<>();
+        for (List<JSCClass> component : tarjan.components) {
+            int depth = 0;
+            for (JSCClass jscClass : component) {
+                for (JSCClass referenced : references.get(jscClass)) {
+                    Integer referencedDepth = depthOf.get(referenced);
+                    if (referencedDepth != null) {
+                        depth = Math.max(depth, referencedDepth + 1);
+                    }
+                }
+            }
+            for (JSCClass jscClass : component) {
+                depthOf.put(jscClass, depth);
+            }
+
+            while (depths.size() <= depth) {
+                depths.add(new ArrayList<>());
+            }
+            depths.get(depth).add(component);
+        }
+        return depths;
+    }
+
+    private static void addReferences(Set<JSCClass> referenced, JSCClass jscClass, Set<JSCClass> compiled) {
+        for (JSCClass used : jscClass.getUsedClasses()) {
+            // Classes outside the compile are on its classpath already.
+            if (compiled.contains(used)) {
+                referenced.add(used);
+            }
+        }
+    }
+
+    /**
+     * Deals the components of a depth, largest first, to the lightest of at most parallelism batches.
+     */
+    private static List<List<JSCClass>> spread(List<List<JSCClass>> depth, int parallelism, ToLongFunction<JSCClass> size) {
+        List<List<JSCClass>> components = new ArrayList<>(depth);
+        Map<List<JSCClass>, Long> weights = new IdentityHashMap<>();
+        for (List<JSCClass> component : components) {
+            long weight = 0;
+            for (JSCClass jscClass : component) {
+                weight += size.applyAsLong(jscClass);
+            }
+            weights.put(component, weight);
+        }
+        components.sort((a, b) -> Long.compare(weights.get(b), weights.get(a)));
+
+        int count = Math.min(parallelism, components.size());
+        List<List<JSCClass>> batches = new ArrayList<>();
+        long[] loads = new long[count];
+        for (int i = 0; i < count; i++) {
+            batches.add(new ArrayList<>());
+        }
+        for (List<JSCClass> component : components) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            batches.get(lightest).addAll(component);
+            loads[lightest] += weights.get(component);
+        }
+        return batches;
+    }
+
+    /**
+     * Compiles one batch, against the classes of earlier stages.
+     */
+    interface Batch {
+        List<CompileError> compile(List<JSCClass> classes) throws Exception;
+    }
+
+    private static class Tarjan {
+        private final Map<JSCClass, Set<JSCClass>> references;
+        private final Map<JSCClass, Integer> index = new HashMap<>();
+        private final Map<JSCClass, Integer> lowLink = new HashMap<>();
+        private final Deque<JSCClass> stack = new ArrayDeque<>();
+        private final Set<JSCClass> onStack = new HashSet<>();
+        private final List<List<JSCClass>> components = new ArrayList<>();
+
+        Tarjan(Map<JSCClass, Set<JSCClass>> references) {
+            this.references = references;
+        }
+
+        private void visit(JSCClass jscClass) {
+            int index = this.index.size();
+            this.index.put(jscClass, index);
+            this.lowLink.put(jscClass, index);
+            this.stack.push(jscClass);
+            this.onStack.add(jscClass);
+
+            for (JSCClass referenced : this.references.get(jscClass)) {
+                if (!this.index.containsKey(referenced)) {
+                    this.visit(referenced);
+                    this.lowLink.put(jscClass, Math.min(this.lowLink.get(jscClass), this.lowLink.get(referenced)));
+                } else if (this.onStack.contains(referenced)) {
+                    this.lowLink.put(jscClass, Math.min(this.lowLink.get(jscClass), this.index.get(referenced)));
+                }
+            }
+
+            if (this.lowLink.get(jscClass) == index) {
+                List<JSCClass> component = new ArrayList<>();
+                JSCClass member;
+                do {
+                    member = this.stack.pop();
+                    this.onStack.remove(member);
+                    component.add(member);
+                } while (member != jscClass);
+                this.components.add(component);
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.App;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author xnen
+ * Picks candidates for ambiguous imports from the errors of a single compile. Every import implicated by
+ * an error moves to its best scoring untried candidate at once, where the score is based on how the
+ * simple name is used in the generated source and which members the candidate class actually has.
+ * The winning candidates are remembered per script, so the next run compiles right the first time.
+ */
+class ImportDisambiguator implements Closeable {
+    private static final String IDENTIFIER = "[A-Za-z_$][\\w$]*";
+
+    private final Map<JavaImport, Set<String>> rejected = new IdentityHashMap<>();
+    private final Map<String, URLClassLoader> loaders = new HashMap<>();
+
+    /**
+     * @param code all generated sources, used to see how each simple name is used
+     * @return true if at least one import changed, i.e. another compile is worthwhile
+     */
+    boolean disambiguate(List<JavaImport> imports, List<CompileError> errors, String code) {
+        boolean changed = false;
+
+        for (JavaImport javaImport : imports) {
+            List<String> candidates = javaImport.getPossibleImports();
+            if (candidates.size() < 2 || !isImplicated(javaImport, errors)) {
+                continue;
+            }
+
+            Set<String> rejectedCandidates = this.rejected.computeIfAbsent(javaImport, k -> new HashSet<>());
+            rejectedCandidates.add(javaImport.getCurrentImport());
+
+            Usage usage = new Usage(getSimpleName(javaImport.getRaw()), code);
+            String best = null;
+            int bestScore = Integer.MIN_VALUE;
+            for (int i = 0; i < candidates.size(); i++) {
+                String candidate = candidates.get(i);
+                if (rejectedCandidates.contains(candidate)) {
+                    continue;
+                }
+
+                // Ties keep the earlier candidate, which preserves JDK-first ordering.
+                int score = this.score(candidate, javaImport.getPossibleLibraries().get(i), usage);
+                if (score > bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                }
+            }
+
+            if (best != null && javaImport.select(best)) {
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    private static boolean isImplicated(JavaImport javaImport, List<CompileError> errors) {
+        String current = javaImport.getCurrentImport();
+        Pattern mention = Pattern.compile("(?<![\\w$.])(" + Pattern.quote(getSimpleName(javaImport.getRaw()))
+                + "|" + Pattern.quote(current) + ")(?![\\w$])");
+
+        for (CompileError error : errors) {
+            if (error.getLine().trim().endsWith("import " + current + ";")) {
+                return true;
+            }
+            if (!javaImport.getRaw().endsWith("*") && mention.matcher(error.getMessage()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int score(String candidate, String library, Usage usage) {
+        Class<?> clazz = this.load(candidate, library);
+        if (clazz == null) {
+            return 0;
+        }
+
+        int score = 0;
+        if (!Modifier.isPublic(clazz.getModifiers())) {
+            score -= 10;
+        }
+        if (usage.generic) {
+            score += clazz.getTypeParameters().length > 0 ? 1 : -5;
+        }
+        if (usage.constructed) {
+            score += clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers()) ? -5 : 1;
+        }
+
+        Set<String> memberNames = new HashSet<>();
+        try {
+            for (Method method : clazz.getMethods()) {
+                memberNames.add(method.getName());
+            }
+            for (Field field : clazz.getFields()) {
+                memberNames.add(field.getName());
+            }
+            for (Class<?> inner : clazz.getClasses()) {
+                memberNames.add(inner.getSimpleName());
+            }
+        } catch (LinkageError e) {
+            // Members reference classes that aren't available, so judge on the class alone.
+            return score;
+        }
+
+        for (String member : usage.members) {
+            score += memberNames.contains(member) ? 2 : -3;
+        }
+        return score;
+    }
+
+    private Class<?> load(String className, String library) {
+        if (className.endsWith("*")) {
+            return null;
+        }
+
+        try {
+            // JDK classes from the module image have no library, the launcher's own JDK stands in for it.
+            if (library == null) {
+                return Class.forName(className, false, ClassLoader.getSystemClassLoader().getParent());
+            }
+
+            URLClassLoader loader = this.loaders.get(library);
+            if (loader == null) {
+                loader = new URLClassLoader(new URL[]{new File(library).toURI().toURL()}, ClassLoader.getSystemClassLoader().getParent());
+                this.loaders.put(library, loader);
+            }
+            return Class.forName(className, false, loader);
+        } catch (IOException | ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (URLClassLoader loader : this.loaders.values()) {
+            try {
+                loader.close();
+            } catch (IOException ignored) {
+            }
+        }
+        this.loaders.clear();
+    }
+
+    private static String getSimpleName(String raw) {
+        return raw.substring(raw.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Moves every ambiguous import to the candidate that last compiled for this script, if any.
+     */
+    static void applyRemembered(File script, List<JavaImport> imports) {
+        File file = getMemoryFile(script);
+        if (!file.isFile()) {
+            return;
+        }
+
+        Properties remembered = new Properties();
+        try (Reader reader = new FileReader(file)) {
+            remembered.load(reader);
+        } catch (IOException e) {
+            return;
+        }
+
+        for (JavaImport javaImport : imports) {
+            String choice = remembered.getProperty(getMemoryKey(javaImport));
+            if (choice != null) {
+                javaImport.select(choice);
+            }
+        }
+    }
+
+    /**
+     * Stores the current candidate of every ambiguous import after a successful compile.
+     */
+    static void remember(File script, List<JavaImport> imports) {
+        Properties remembered = new Properties();
+        for (JavaImport javaImport : imports) {
+            if (javaImport.getPossibleImports().size() > 1) {
+                remembered.setProperty(getMemoryKey(javaImport), javaImport.getCurrentImport());
+            }
+        }
+
+        File file = getMemoryFile(script);
+        if (remembered.isEmpty()) {
+            return;
+        }
+
+        try {
+            File dir = file.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+
+            File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+            try (Writer writer = new FileWriter(tmpFile)) {
+                remembered.store(writer, "Import choices for " + script.getName());
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("[WARN] Could not remember import choices for " + script.getName() + ".");
+        }
+    }
+
+    private static String getMemoryKey(JavaImport javaImport) {
+        return javaImport.getLibrary() == null ? javaImport.getRaw() : javaImport.getRaw() + "@" + javaImport.getLibrary();
+    }
+
+    private static File getMemoryFile(File script) {
+        String path;
+        try {
+            path = script.getCanonicalPath();
+        } catch (IOException e) {
+            path = script.getAbsolutePath();
+        }
+
+        File dir = new File(App.getInstance().getSettings().getFormattedCacheDirectory(), "imports");
+        return new File(dir, script.getName() + "-" + Integer.toHexString(path.hashCode()) + ".properties");
+    }
+
+    /**
+     * How a simple name is used in the generated source.
+     */
+    private static class Usage {
+        private final Set<String> members = new HashSet<>();
+        private final boolean generic;
+        private final boolean constructed;
+
+        Usage(String simpleName, String code) {
+            String name = "(?<![\\w$.])" + Pattern.quote(simpleName) + "\\s*";
+
+            this.generic = Pattern.compile(name + "<").matcher(code).find();
+            this.constructed = Pattern.compile("\\bnew\\s+" + name + "[(<]").matcher(code).find();
+
+            // Static access, i.e. Name.member
+            collectMembers(Pattern.compile(name + "\\.\\s*(" + IDENTIFIER + ")"), code);
+
+            // Instance access through variables declared with the type, i.e. Name<T> var = ...; var.member
+            Matcher declarations = Pattern.compile(name + "(?:<[^;=(){}]*>\\s*)?(" + IDENTIFIER + ")\\s*[=;,)]").matcher(code);
+            Set<String> variables = new HashSet<>();
+            while (declarations.find()) {
+                variables.add(declarations.group(1));
+            }
+            for (String variable : variables) {
+                collectMembers(Pattern.compile("(?<![\\w$.])" + Pattern.quote(variable) + "\\s*\\.\\s*(" + IDENTIFIER + ")"), code);
+            }
+        }
+
+        private void collectMembers(Pattern pattern, String code) {
+            Matcher matcher = pattern.matcher(code);
+            while (matcher.find()) {
+                this.members.add(matcher.group(1));
+            }
+        }
+    }
+}
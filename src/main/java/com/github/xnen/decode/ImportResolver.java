@@ -0,0 +1,198 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.App;
+import com.github.xnen.profile.Profiler;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * @author xnen
+ * Resolves import names against the JDK and the library directory. The JDK is rt.jar up to Java 8 and the
+ * module image, read through jrt:/, from Java 9. Every jar is indexed once per run, with all jars indexed
+ * in parallel, and the result for an import is shared by every identical import.
+ */
+public class ImportResolver {
+    private volatile Indexed indexed;
+
+    /**
+     * @param library part of a jar name to restrict the lookup to, or null to search every jar
+     */
+    public Resolution resolve(String className, String library) {
+        // Resolved against one set of indexes, so an invalidation never mixes old and new jars.
+        Indexed indexed = this.getIndexed();
+        return indexed.resolutions.computeIfAbsent(className + '\0' + library, k -> lookup(indexed.indexes, className, library));
+    }
+
+    private static Resolution lookup(List<ClassIndex> indexes, String className, String library) {
+        try (Profiler.Phase ignored = Profiler.phase("import", className)) {
+            return find(indexes, className, library);
+        }
+    }
+
+    private static Resolution find(List<ClassIndex> indexes, String className, String library) {
+        List<String> matches = new ArrayList<>();
+        List<String> libraries = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        for (int i = 0; i < indexes.size(); i++) {
+            ClassIndex index = indexes.get(i);
+
+            // The JDK (always first) is matched on its full path, libraries on their file name.
+            String searchName = i == 0 ? index.getPath() : new File(index.getPath()).getName();
+            if (library != null && !searchName.contains(library)) {
+                continue;
+            }
+
+            List<String> found;
+            if (className.endsWith(".*")) {
+                found = new ArrayList<>();
+                for (String pkg : index.findPackages(className.substring(0, className.length() - 2))) {
+                    found.add(pkg + ".*");
+                }
+            } else {
+                found = index.findClasses(className);
+            }
+
+            // JDK classes are on every classpath already, only library jars are passed on.
+            String foundIn = i == 0 ? null : index.getLibrary();
+            for (String match : found) {
+                if (seen.add(match)) {
+                    matches.add(match);
+                    libraries.add(foundIn);
+                }
+            }
+        }
+
+        if (library == null && libraries.size() == 0) {
+            System.out.println("No matches found for " + className);
+        }
+
+        return new Resolution(matches, libraries);
+    }
+
+    /**
+     * Drops all indexes and resolutions if a jar was added, removed or changed since they were loaded.
+     * Only needed when one resolver outlives a single run. Lookups still running keep the indexes and
+     * resolutions they started with.
+     */
+    public synchronized void invalidateIfChanged() {
+        Indexed indexed = this.indexed;
+        if (indexed != null && !getJarsSignature(getJars()).equals(indexed.signature)) {
+            this.indexed = null;
+        }
+    }
+
+    /**
+     * @return the paths, sizes and modification times of the JDK and every library jar, changing whenever
+     * invalidateIfChanged would drop the indexes
+     */
+    public static String getLibrariesSignature() {
+        return getJarsSignature(getJars());
+    }
+
+    private Indexed getIndexed() {
+        Indexed local = this.indexed;
+        if (local == null) {
+            synchronized (this) {
+                local = this.indexed;
+                if (local == null) {
+                    try (Profiler.Phase ignored = Profiler.phase("index")) {
+                        List<String> jars = getJars();
+                        local = this.indexed = new Indexed(loadIndexes(jars), getJarsSignature(jars));
+                    }
+                }
+            }
+        }
+        return local;
+    }
+
+    /**
+     * Loads the index of the JDK and every library jar on the fork-join pool, keeping the JDK first
+     * and libraries in directory order so candidate order is stable.
+     */
+    private static List<ClassIndex> loadIndexes(List<String> jars) {
+        if (!new File(App.getInstance().getSettings().JDK_LOCATION).isDirectory()) {
+            throw new RuntimeException("JDK Location MUST BE SET in --settings!");
+        }
+
+        List<Callable<ClassIndex>> tasks = new ArrayList<>();
+        for (String jar : jars) {
+            tasks.add(() -> JrtIndex.isImage(jar) ? JrtIndex.load(jar) : JarIndex.load(jar));
+        }
+
+        List<ClassIndex> loaded = new ArrayList<>();
+        try {
+            for (Future<ClassIndex> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                loaded.add(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Could not index libraries", e);
+        }
+        return loaded;
+    }
+
+    /**
+     * @return the JDK's rt.jar, or its lib/modules image from Java 9 on, followed by every library jar
+     */
+    static List<String> getJars() {
+        List<String> jars = new ArrayList<>();
+        String jdk = App.getInstance().getSettings().JDK_LOCATION;
+        File rtJar = new File(jdk + File.separator + "jre" + File.separator + "lib" + File.separator + "rt.jar");
+        File image = new File(jdk + File.separator + "lib" + File.separator + "modules");
+        jars.add(!rtJar.isFile() && image.isFile() ? image.getPath() : rtJar.getPath());
+        for (String s : App.getInstance().getSettings().getLibraries()) {
+            jars.add(App.getInstance().getSettings().getFormattedLibDirectory() + File.separator + s);
+        }
+        return jars;
+    }
+
+    static String getJarsSignature(List<String> jars) {
+        StringBuilder signature = new StringBuilder();
+        for (String jar : jars) {
+            File file = new File(jar);
+            signature.append(jar).append(':').append(file.length()).append(':').append(file.lastModified()).append(';');
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Indexes of one set of jars and the imports resolved against them, replaced as a whole when a jar changes.
+     */
+    private static class Indexed {
+        private final List<ClassIndex> indexes;
+        private final String signature;
+        private final Map<String, Resolution> resolutions = new ConcurrentHashMap<>();
+
+        Indexed(List<ClassIndex> indexes, String signature) {
+            this.indexes = indexes;
+            this.signature = signature;
+        }
+    }
+
+    /**
+     * Candidate imports and the jar each was found in, shared between identical imports.
+     */
+    public static class Resolution {
+        private final List<String> possibleMatches;
+        private final List<String> possibleLibraries;
+
+        Resolution(List<String> possibleMatches, List<String> possibleLibraries) {
+            this.possibleMatches = Collections.unmodifiableList(possibleMatches);
+            this.possibleLibraries = Collections.unmodifiableList(possibleLibraries);
+        }
+
+        public List<String> getPossibleMatches() {
+            return this.possibleMatches;
+        }
+
+        public List<String> getPossibleLibraries() {
+            return this.possibleLibraries;
+        }
+    }
+}
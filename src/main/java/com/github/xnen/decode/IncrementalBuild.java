@@ -0,0 +1,366 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.App;
+import com.github.xnen.settings.Settings;
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * @author xnen
+ * Persistent state of a script project between builds, under cacheDir/incremental, so only classes whose
+ * generated Java changed are recompiled, together with every class depending on them.
+ *
+ * Per class, the state holds the hash of its generated Java, the class files it produced and the project
+ * classes it depends on. Dependencies are read from the constant pools of the class files, plus 'using' edges
+ * for constants javac inlines. Class files of unchanged classes are reused from the state directory, which is
+ * on the classpath of the compile.
+ * Anything that affects every class, i.e. the compiler or the library jars, starts over with a full build.
+ */
+class IncrementalBuild implements Closeable {
+    private static final int FORMAT = 1;
+
+    private final File dir;
+    private final File classDir;
+    private final File stateFile;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private State state;
+
+    private IncrementalBuild(File dir) throws IOException {
+        this.dir = dir;
+        this.classDir = new File(dir, "classes");
+        this.stateFile = new File(dir, "state.json");
+
+        if (!this.classDir.exists() && !this.classDir.mkdirs()) {
+            throw new IOException("Could not create " + this.classDir);
+        }
+
+        // Concurrent builds of the same project would overwrite each other's class files.
+        this.lockChannel = FileChannel.open(new File(dir, ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lock = this.lockChannel.lock();
+    }
+
+    /**
+     * Opens and locks the state of the project with the given main file, until closed.
+     */
+    static IncrementalBuild open(File mainFile) throws IOException {
+        String path;
+        try {
+            path = mainFile.getCanonicalPath();
+        } catch (IOException e) {
+            path = mainFile.getAbsolutePath();
+        }
+
+        File dir = new File(new File(App.getInstance().getSettings().getFormattedCacheDirectory(), "incremental"),
+                mainFile.getName() + "-" + Integer.toHexString(path.hashCode()));
+        IncrementalBuild build = new IncrementalBuild(dir);
+        build.load();
+        return build;
+    }
+
+    private void load() {
+        if (this.stateFile.isFile()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(this.stateFile), StandardCharsets.UTF_8)) {
+                this.state = new Gson().fromJson(reader, State.class);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("[WARN] Could not read incremental build state, rebuilding everything.");
+                this.state = null;
+            }
+        }
+
+        String environment = getEnvironment();
+        if (this.state == null || this.state.format != FORMAT || !environment.equals(this.state.environment) || this.state.classes == null) {
+            this.state = new State();
+            this.state.format = FORMAT;
+            this.state.environment = environment;
+            this.state.classes = new TreeMap<>();
+            deleteContents(this.classDir);
+        }
+    }
+
+    File getClassDirectory() {
+        return this.classDir;
+    }
+
+    /**
+     * Works out which classes need compiling, and forgets them along with classes no longer in the project,
+     * so the class directory only holds class files that stay valid.
+     * @param sources SHA-256 of the generated Java per qualified class name, as the sources themselves may not fit
+     *                in memory
+     * @param using qualified names of the classes each class reaches through 'using'
+     * @return the qualified names of the classes to compile
+     */
+    Set<String> prepare(Map<String, String> sources, Map<String, Set<String>> using) throws IOException {
+        Set<String> dirty = new TreeSet<>();
+        Set<String> removed = new HashSet<>(this.state.classes.keySet());
+        removed.removeAll(sources.keySet());
+
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            ClassState classState = this.state.classes.get(source.getKey());
+            if (classState == null || !source.getValue().equals(classState.javaHash) || !this.hasOutputs(classState)) {
+                dirty.add(source.getKey());
+            }
+        }
+
+        // Everything depending on a changed or removed class, directly or not, compiles again.
+        Set<String> changed = new HashSet<>(dirty);
+        changed.addAll(removed);
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (String className : sources.keySet()) {
+                if (dirty.contains(className)) {
+                    continue;
+                }
+
+                Set<String> dependencies = new HashSet<>(this.state.classes.get(className).dependencies);
+                dependencies.addAll(using.getOrDefault(className, Collections.<String>emptySet()));
+                for (String dependency : dependencies) {
+                    if (changed.contains(dependency)) {
+                        dirty.add(className);
+                        changed.add(className);
+                        grown = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (String className : changed) {
+            ClassState classState = this.state.classes.remove(className);
+            if (classState != null) {
+                for (String output : classState.outputs) {
+                    Files.deleteIfExists(this.getClassFile(output).toPath());
+                }
+            }
+        }
+        this.save();
+
+        return dirty;
+    }
+
+    /**
+     * Stores the class files of the compiled classes and records their state.
+     * @param sources SHA-256 of the generated Java per qualified class name, as for prepare
+     * @param compiled class bytes of the compile, keyed by binary name
+     * @return class bytes of every class that wasn't compiled, keyed by binary name
+     */
+    Map<String, byte[]> complete(Map<String, String> sources, Set<String> dirty, Map<String, byte[]> compiled, Map<String, Set<String>> using) throws IOException {
+        Map<String, ClassState> compiledStates = new HashMap<>();
+        for (String className : dirty) {
+            ClassState classState = new ClassState();
+            classState.javaHash = sources.get(className);
+            classState.outputs = new ArrayList<>();
+            classState.dependencies = new TreeSet<>(using.getOrDefault(className, Collections.<String>emptySet()));
+            compiledStates.put(className, classState);
+        }
+
+        for (Map.Entry<String, byte[]> entry : compiled.entrySet()) {
+            ClassState classState = compiledStates.get(getOwner(entry.getKey(), sources.keySet()));
+            if (classState == null) {
+                continue;
+            }
+
+            classState.outputs.add(entry.getKey());
+            for (String reference : getReferencedClasses(entry.getValue())) {
+                String owner = getOwner(reference, sources.keySet());
+                if (owner != null && !owner.equals(getOwner(entry.getKey(), sources.keySet()))) {
+                    classState.dependencies.add(owner);
+                }
+            }
+
+            File classFile = this.getClassFile(entry.getKey());
+            if (!classFile.getParentFile().exists() && !classFile.getParentFile().mkdirs()) {
+                throw new IOException("Could not create package dirs for class " + entry.getKey());
+            }
+            Files.write(classFile.toPath(), entry.getValue());
+        }
+
+        Map<String, byte[]> reused = new TreeMap<>();
+        for (Map.Entry<String, ClassState> entry : this.state.classes.entrySet()) {
+            if (dirty.contains(entry.getKey())) {
+                continue;
+            }
+            for (String output : entry.getValue().outputs) {
+                reused.put(output, Files.readAllBytes(this.getClassFile(output).toPath()));
+            }
+        }
+
+        this.state.classes.putAll(compiledStates);
+        this.save();
+        return reused;
+    }
+
+    private boolean hasOutputs(ClassState classState) {
+        if (classState.outputs == null || classState.outputs.isEmpty() || classState.dependencies == null) {
+            return false;
+        }
+        for (String output : classState.outputs) {
+            if (!this.getClassFile(output).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private File getClassFile(String binaryName) {
+        return new File(this.classDir, binaryName.replace('.', File.separatorChar) + ".class");
+    }
+
+    private void save() throws IOException {
+        File tmpFile = File.createTempFile("state", ".tmp", this.dir);
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8)) {
+                new Gson().toJson(this.state, writer);
+            }
+            Files.move(tmpFile.toPath(), this.stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.lock.release();
+        } finally {
+            this.lockChannel.close();
+        }
+    }
+
+    /**
+     * @return the project class a binary class name belongs to, i.e. pkg.Name for pkg.Name$1, or null
+     */
+    private static String getOwner(String binaryName, Set<String> classNames) {
+        String name = binaryName;
+        while (!classNames.contains(name)) {
+            int nested = name.lastIndexOf('$');
+            if (nested < 0) {
+                return null;
+            }
+            name = name.substring(0, nested);
+        }
+        return name;
+    }
+
+    /**
+     * Reads every class a class file refers to from its constant pool: class entries, and types in
+     * field and method descriptors or signatures, which aren't always class entries.
+     * @return binary class names
+     */
+    static Set<String> getReferencedClasses(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        List<Integer> classEntries = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classEntries.add(in.readUnsignedShort());
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.readUnsignedShort();
+                    break;
+                case 15: // MethodHandle
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.readInt();
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.readLong();
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        Set<String> references = new HashSet<>();
+        for (int index : classEntries) {
+            if (utf8[index] != null && !utf8[index].startsWith("[")) {
+                references.add(utf8[index].replace('/', '.'));
+            }
+        }
+        for (String value : utf8) {
+            if (value == null) {
+                continue;
+            }
+
+            // Descriptor types, i.e. Lpkg/Name; or Lpkg/Name<...>;
+            for (int start = value.indexOf('L'); start >= 0; start = value.indexOf('L', start + 1)) {
+                int end = start + 1;
+                while (end < value.length() && value.charAt(end) != ';' && value.charAt(end) != '<') {
+                    end++;
+                }
+                if (end < value.length() && end > start + 1) {
+                    references.add(value.substring(start + 1, end).replace('/', '.'));
+                }
+            }
+        }
+        return references;
+    }
+
+    private static String getEnvironment() {
+        Settings settings = App.getInstance().getSettings();
+        return settings.getJDKLocation() + '\n' + settings.IN_MEMORY_COMPILE + '\n' + System.getProperty("java.home") + '\n'
+                + System.getProperty("java.version") + '\n' + ImportResolver.getJarsSignature(ImportResolver.getJars());
+    }
+
+    private static void deleteContents(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteContents(file);
+            }
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static class State {
+        private int format;
+        private String environment;
+        private Map<String, ClassState> classes;
+    }
+
+    private static class ClassState {
+        private String javaHash;
+        private List<String> outputs;
+        private Set<String> dependencies;
+    }
+}
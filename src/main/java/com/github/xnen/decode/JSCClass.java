@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * @author xnen
@@ -15,16 +16,20 @@ public class JSCClass {
 
     private final Map<String, String> macros = new HashMap<>(App.getInstance().getSettings().globalMacros);
     private final List<JSCClass> methodExtensions = new ArrayList<>();
+    private final List<JSCClass> usedClasses = new ArrayList<>();
+    private final List<String> usedFiles = new ArrayList<>();
+    private final List<String> extendedFiles = new ArrayList<>();
     private final List<String> staticImports = new ArrayList<>();
     private final List<JavaImport> imports = new ArrayList<>();
-    private final List<String> classScope = new ArrayList<>();
-    private final List<String> mainScope = new ArrayList<>();
+    private final LineBuffer classScope = new LineBuffer();
+    private final LineBuffer mainScope = new LineBuffer();
     private final String className;
     private C_MODIFIER modifier = C_MODIFIER.CLASS;
     private String[] genericTypes;
     private String[] implClasses;
     private String extendClass;
     private String classPkg;
+    private MacroEngine macroEngine;
 
     public JSCClass(String className) {
         this.className = className;
@@ -61,14 +66,47 @@ public class JSCClass {
     public List<JavaImport> getImports() {
         return this.imports;
     }
+    public List<JSCClass> getMethodExtensions() {
+        return this.methodExtensions;
+    }
+    public List<JSCClass> getUsedClasses() {
+        return this.usedClasses;
+    }
+    public List<String> getUsedFiles() {
+        return this.usedFiles;
+    }
+    public List<String> getExtendedFiles() {
+        return this.extendedFiles;
+    }
+    /**
+     * @return the class scope lines, read into memory, i.e. of a prompt input
+     */
     public List<String> getClassScope() {
-        return classScope;
+        return this.classScope.toList();
     }
     public Map<String, String> getMacros() {
         return macros;
     }
+
+    /**
+     * @return the engine for the effective macros of this class, i.e. global, '!macro' and those of 'ext' classes
+     */
+    public MacroEngine getMacroEngine() {
+        if (this.macroEngine == null) {
+            Map<String, String> effective = new HashMap<>(this.macros);
+            for (JSCClass ext : this.methodExtensions) {
+                // Must add macros here to translate properly in new class
+                effective.putAll(ext.macros);
+            }
+            this.macroEngine = new MacroEngine(effective);
+        }
+        return this.macroEngine;
+    }
+    /**
+     * @return the main scope lines, read into memory, i.e. of a prompt input
+     */
     public List<String> getMainScope() {
-        return mainScope;
+        return this.mainScope.toList();
     }
     public C_MODIFIER getModifier() {
         return modifier;
@@ -79,15 +117,32 @@ public class JSCClass {
     public String getClassName() {
         return className;
     }
+    public String getQualifiedName() {
+        if (this.classPkg != null) {
+            return this.classPkg + "." + this.getClassNameNoExtension();
+        }
+        return this.getClassNameNoExtension();
+    }
 
     public void addStaticImport(String staticImport) {
         this.staticImports.add(staticImport);
     }
     public void addMethodExtension(JSCClass fileName) {
         this.methodExtensions.add(fileName);
+        this.macroEngine = null;
+    }
+    public void addUsedClass(JSCClass jscClass) {
+        this.usedClasses.add(jscClass);
+    }
+    public void addUsedFile(String fileName) {
+        this.usedFiles.add(fileName);
+    }
+    public void addExtendedFile(String fileName) {
+        this.extendedFiles.add(fileName);
     }
     public void addMacro(String[] strings) {
         this.macros.put(strings[0], strings[1]);
+        this.macroEngine = null;
     }
     public void addImport(JavaImport javaImport) {
         this.imports.add(javaImport);
@@ -99,28 +154,40 @@ public class JSCClass {
         this.mainScope.add(line);
     }
 
+    /**
+     * Frees the scopes, including any written to disk. The class can't generate Java afterwards.
+     */
+    public void release() {
+        this.classScope.release();
+        this.mainScope.release();
+    }
+
     public List<String> toJavaClass() {
         List<String> javaLines = new ArrayList<>();
+        this.toJavaClass(javaLines::add);
+        return javaLines;
+    }
 
+    /**
+     * Hands every line of the Java class to the consumer in order, streaming the scopes instead of collecting them.
+     */
+    public void toJavaClass(Consumer<String> javaLines) {
         if (this.classPkg != null) {
-            javaLines.add("package " + this.classPkg + ";");
+            javaLines.accept("package " + this.classPkg + ";");
         }
 
         for (JSCClass ext : this.methodExtensions) {
-            // Must add macros here to translate properly in new class
-            this.macros.putAll(ext.macros);
-
             for (JavaImport javaImport : ext.getImports()) {
-                javaLines.add("import " + javaImport.getCurrentImport() + ";");
+                javaLines.accept("import " + javaImport.getCurrentImport() + ";");
             }
         }
 
         for (JavaImport javaImport : this.getImports()) {
-            javaLines.add("import " + javaImport.getCurrentImport() + ";");
+            javaLines.accept("import " + javaImport.getCurrentImport() + ";");
         }
 
         for (String staticImport : this.getStaticImports()) {
-            javaLines.add("import static " + staticImport + ";");
+            javaLines.accept("import static " + staticImport + ";");
         }
 
         StringBuilder classLine = new StringBuilder("public " + this.getModifier().getName() + " " + this.getClassNameNoExtension());
@@ -150,22 +217,20 @@ public class JSCClass {
         }
 
         classLine.append(" {");
-        javaLines.add(classLine.toString());
+        javaLines.accept(classLine.toString());
 
         if (this.getModifier() != C_MODIFIER.INTERFACE) {
-            javaLines.add("public static void main(String[] args) {");
-            javaLines.addAll(this.mainScope);
-            javaLines.add("}");
+            javaLines.accept("public static void main(String[] args) {");
+            this.mainScope.forEach(javaLines);
+            javaLines.accept("}");
         }
 
         for (JSCClass ext : this.methodExtensions) {
-            javaLines.addAll(ext.classScope);
+            ext.classScope.forEach(javaLines);
         }
 
-        javaLines.addAll(this.classScope);
-        javaLines.add("}");
-
-        return javaLines;
+        this.classScope.forEach(javaLines);
+        javaLines.accept("}");
     }
 
     public enum C_MODIFIER {
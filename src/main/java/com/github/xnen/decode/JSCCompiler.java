@@ -0,0 +1,226 @@
+package com.github.xnen.decode;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * @author xnen
+ * In-process compiler for generated JSC sources. Sources are handed to javac straight from memory
+ * and the resulting class bytes stay in memory, keyed by their binary class name.
+ * Closing a compiler closes the jars it opened.
+ */
+public class JSCCompiler implements Closeable {
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    /** Kept across compiles, so opened jars and listed packages are reused, i.e. by every input of the prompt. */
+    private StandardJavaFileManager standardManager;
+
+    /**
+     * The system compiler is only present when the launcher itself runs on a JDK.
+     */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Compiles a trivial class, so javac's own classes are loaded and warm before the first real compile.
+     */
+    public void warmUp() {
+        this.compile(Collections.singletonList(new Source(null, "Warmup", "class Warmup { public static void main(String[] a) { System.out.println(a.length); } }")),
+                Collections.<String>emptyList());
+    }
+
+    public Result compile(Collection<Source> sources, List<String> classpath) {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        if (this.standardManager == null) {
+            this.standardManager = this.compiler.getStandardFileManager(null, Locale.ROOT, null);
+        }
+
+        List<String> options = new ArrayList<>();
+        options.add("-nowarn");
+        if (classpath.size() > 0) {
+            options.add("-classpath");
+            options.add(String.join(System.getProperty("path.separator"), classpath));
+        }
+
+        Map<String, byte[]> classes = new TreeMap<>();
+        try (MemoryFileManager fileManager = new MemoryFileManager(this.standardManager)) {
+            Boolean success = this.compiler.getTask(null, fileManager, diagnostics, options, null, sources).call();
+            for (ClassOutput output : fileManager.outputs) {
+                classes.put(output.className, output.getBytes());
+            }
+            return new Result(success != null && success, diagnostics, classes);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not close in-memory file manager", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.standardManager != null) {
+            this.standardManager.close();
+            this.standardManager = null;
+        }
+    }
+
+    /**
+     * Generated Java source of a single JSC class, held in memory or, for scripts of any size, in a UTF-8 file
+     * that is only read while javac parses it.
+     */
+    public static class Source extends SimpleJavaFileObject {
+        private final JSCClass jscClass;
+        private final String code;
+        private final Path file;
+
+        public Source(JSCClass jscClass, String binaryName, String code) {
+            this(jscClass, binaryName, code, null);
+        }
+
+        public Source(JSCClass jscClass, String binaryName, Path file) {
+            this(jscClass, binaryName, null, file);
+        }
+
+        private Source(JSCClass jscClass, String binaryName, String code, Path file) {
+            super(URI.create("string:///" + binaryName.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.jscClass = jscClass;
+            this.code = code;
+            this.file = file;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+            return this.code != null ? this.code : new String(Files.readAllBytes(this.file), StandardCharsets.UTF_8);
+        }
+
+        public JSCClass getJSCClass() {
+            return this.jscClass;
+        }
+
+        /**
+         * @return the 1-based line of the generated source, or an empty string if out of range.
+         */
+        public String getLine(long lineNumber) {
+            if (this.code == null) {
+                try (Stream<String> lines = Files.lines(this.file, StandardCharsets.UTF_8)) {
+                    return lineNumber < 1 ? "" : lines.skip(lineNumber - 1).findFirst().orElse("");
+                } catch (IOException | UncheckedIOException e) {
+                    return "";
+                }
+            }
+
+            int start = 0;
+            for (long i = 1; i < lineNumber; i++) {
+                start = this.code.indexOf('\n', start) + 1;
+                if (start == 0) {
+                    return "";
+                }
+            }
+
+            int end = this.code.indexOf('\n', start);
+            return end < 0 ? this.code.substring(start) : this.code.substring(start, end);
+        }
+    }
+
+    public static class Result {
+        private final boolean success;
+        private final DiagnosticCollector<JavaFileObject> diagnostics;
+        private final Map<String, byte[]> classes;
+
+        Result(boolean success, DiagnosticCollector<JavaFileObject> diagnostics, Map<String, byte[]> classes) {
+            this.success = success;
+            this.diagnostics = diagnostics;
+            this.classes = classes;
+        }
+
+        public boolean isSuccess() {
+            return this.success;
+        }
+
+        public DiagnosticCollector<JavaFileObject> getDiagnostics() {
+            return this.diagnostics;
+        }
+
+        /**
+         * @return the errors of the compile, attributed to the JSC class of their source where known
+         */
+        List<CompileError> getErrors() {
+            List<CompileError> errors = new ArrayList<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : this.diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+                    continue;
+                }
+
+                if (diagnostic.getSource() instanceof Source) {
+                    Source source = (Source) diagnostic.getSource();
+                    errors.add(new CompileError(source.getJSCClass(), diagnostic.getLineNumber(),
+                            diagnostic.getMessage(Locale.ROOT), source.getLine(diagnostic.getLineNumber())));
+                } else {
+                    errors.add(new CompileError(null, diagnostic.getLineNumber(), diagnostic.getMessage(Locale.ROOT), ""));
+                }
+            }
+            return errors;
+        }
+
+        /**
+         * @return class bytes keyed by binary name (i.e. pkg.Name$1)
+         */
+        public Map<String, byte[]> getClasses() {
+            return this.classes;
+        }
+    }
+
+    private static class ClassOutput extends SimpleJavaFileObject {
+        private final String className;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassOutput(String className) {
+            super(URI.create("mem:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.className = className;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return this.bytes;
+        }
+
+        byte[] getBytes() {
+            return this.bytes.toByteArray();
+        }
+    }
+
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final List<ClassOutput> outputs = new ArrayList<>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+            if (kind != JavaFileObject.Kind.CLASS) {
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            }
+
+            ClassOutput output = new ClassOutput(className);
+            this.outputs.add(output);
+            return output;
+        }
+
+        /**
+         * Leaves the standard file manager open for the next compile.
+         */
+        @Override
+        public void close() throws IOException {
+            this.flush();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.xnen.decode;
+
+/**
+ * @author xnen
+ * Raised when a JSC script can't be turned into a runnable jar, i.e. a missing file or compile errors.
+ * The message is meant to be shown to the user as-is.
+ */
+public class JSCException extends RuntimeException {
+    public JSCException(String message) {
+        super(message);
+    }
+
+    public JSCException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -1,136 +1,320 @@
 package com.github.xnen.decode;
 import com.github.xnen.App;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.InputStream;
+import com.github.xnen.profile.Profiler;
+
+import java.io.*;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
-public class JSCHandler {
+public class JSCHandler implements Closeable {
     private final String mainClass;
+    private final File baseDir;
     private final JSCClass mainJSCObj;
 
     List<JSCClass> classList = new ArrayList<>();
+    private final ImportResolver importResolver;
+
+    /** Class bytes to pack from the last in-memory compile and those reused by an incremental build, keyed by binary name. */
+    private final Map<String, byte[]> compiledClasses = new TreeMap<>();
 
     public JSCHandler(String mainClass) {
-        this.mainClass = mainClass;
-        mainJSCObj = handle(this.mainClass, true);
+        this(null, mainClass, new ImportResolver());
     }
 
-    JSCClass handle(String className, boolean addToList) {
-        List<String> lines = JSCFormatter.format(new File(className));
-        JSCClass clazz = JSCParser.parse(this, className, lines);
-        if (addToList) {
-            this.classList.add(clazz);
+    /**
+     * @param baseDir directory relative JSC file names are resolved against, or null for the working directory
+     * @param importResolver resolver to share with other handlers, i.e. across runs of a resident launcher
+     */
+    public JSCHandler(File baseDir, String mainClass, ImportResolver importResolver) {
+        this.baseDir = baseDir;
+        this.mainClass = mainClass;
+        this.importResolver = importResolver;
+        JSCLoader loader = new JSCLoader(this);
+        try (Profiler.Phase ignored = Profiler.phase("load")) {
+            mainJSCObj = loader.load(this.resolve(this.mainClass));
+            this.classList.addAll(loader.getClassList());
         }
-        return clazz;
+        ImportDisambiguator.applyRemembered(this.resolve(this.mainClass), this.getAllImports());
     }
 
-    public void writeClasses(Path tmpDir) {
-        File srcDir = new File(tmpDir + File.separator + "src");
-        File binDir = new File(tmpDir + File.separator + "bin");
+    File resolve(String fileName) {
+        File file = new File(fileName);
+        return file.isAbsolute() || this.baseDir == null ? file : new File(this.baseDir, fileName);
+    }
+
+    ImportResolver getImportResolver() {
+        return this.importResolver;
+    }
 
-        if (!srcDir.exists()) {
-            if (!srcDir.mkdir()) {
-                System.out.println("Could not create src directory.");
-                System.exit(-1);
+    /**
+     * Releases the parsed scopes of every class, including those written to disk for large scripts.
+     */
+    @Override
+    public void close() {
+        for (JSCClass jscClass : this.classList) {
+            for (JSCClass ext : jscClass.getMethodExtensions()) {
+                ext.release();
             }
+            jscClass.release();
         }
+    }
+
+    /**
+     * Streams the generated Java of every class, with macros applied, to the src directory and creates the bin
+     * directory. Lines go from the parsed scopes through the macro engine straight to the file, so no class is
+     * held whole, however large the script.
+     * @return the SHA-256 of each generated source, keyed by qualified class name
+     */
+    private Map<String, String> writeSources(Path tmpDir) {
+        File binDir = new File(tmpDir + File.separator + "bin");
         if (!binDir.exists()) {
-            if (!binDir.mkdir()) {
-                System.out.println("Could not create bin directory.");
-                System.exit(-1);
+            if (!binDir.mkdirs()) {
+                throw new JSCException("Could not create bin directory.");
             }
         }
 
+        Map<String, String> hashes = new LinkedHashMap<>();
         for (JSCClass jscClass : this.classList) {
-            File targetDir = srcDir;
-            if (jscClass.getPackage() != null) {
-                StringBuilder path = new StringBuilder(srcDir.getAbsolutePath() + File.separator);
-                for (String s : jscClass.getPackage().split("\\.")) {
-                    path.append(s).append(File.separator);
-                }
-                targetDir = new File(path.toString());
+            try (Profiler.Phase ignored = Profiler.phase("generate", jscClass.getClassName())) {
+                hashes.put(jscClass.getQualifiedName(), this.writeSource(jscClass, getSourceFile(tmpDir, jscClass)));
             }
+        }
+        return hashes;
+    }
 
-            if (!targetDir.exists()) {
-                if (!targetDir.mkdirs()) {
-                    System.out.println("Could not create package dirs for jsc " + jscClass.getClassNameNoExtension());
-                    System.exit(-1);
-                }
+    private String writeSource(JSCClass jscClass, File file) {
+        if (!file.getParentFile().exists()) {
+            if (!file.getParentFile().mkdirs()) {
+                throw new JSCException("Could not create package dirs for jsc " + jscClass.getClassNameNoExtension());
             }
+        }
 
-            try (FileWriter writer = new FileWriter(targetDir.getAbsolutePath() + File.separator + jscClass.getClassNameNoExtension() + ".java")) {
-                List<String> cLines = jscClass.toJavaClass();
-                for (String line : cLines) {
-                    writer.write(applyMacro(jscClass, line) + System.lineSeparator());
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(new FileOutputStream(file), digest), StandardCharsets.UTF_8))) {
+            MacroEngine macroEngine = jscClass.getMacroEngine();
+            StringBuilder line = new StringBuilder();
+            jscClass.toJavaClass(javaLine -> {
+                line.setLength(0);
+                macroEngine.expand(javaLine, line);
+                try {
+                    writer.append(line).append('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            throw new JSCException("Could not write the Java source of " + jscClass.getClassNameNoExtension() + ".", e);
+        }
+
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
         }
+        return hash.toString();
     }
 
-    private String applyMacro(JSCClass jscClass, String line) {
-        boolean quote = false;
+    /**
+     * @return the file writeSources puts the generated Java of a class in
+     */
+    private static File getSourceFile(Path tmpDir, JSCClass jscClass) {
+        String dir = jscClass.getPackage() == null ? "" : jscClass.getPackage().replace('.', File.separatorChar) + File.separator;
+        return new File(tmpDir + File.separator + "src", dir + jscClass.getClassNameNoExtension() + ".java");
+    }
 
-        for (String key : jscClass.getMacros().keySet()) {
-            String val = jscClass.getMacros().get(key);
+    /**
+     * @return true if compileAll will use the in-process compiler rather than javac.
+     */
+    public boolean compilesInMemory() {
+        return App.getInstance().getSettings().IN_MEMORY_COMPILE && JSCCompiler.isAvailable();
+    }
 
-            key = key.replace("\\\"", "\"");
-            key = key.replace("\\\\", "\\");
+    public boolean compileAll(Path tmpDir) {
+        return this.compileAll(tmpDir, null);
+    }
 
-            char[] chars = line.toCharArray();
-            for (int i = 0; i < chars.length; i++) {
-                char c = chars[i];
+    /**
+     * @param shared in-process compiler to compile with and leave open, i.e. one per precompile worker, or null
+     *               for a compiler of this build
+     */
+    public boolean compileAll(Path tmpDir, JSCCompiler shared) {
+        JSCCompiler compiler = !this.compilesInMemory() ? null : shared != null ? shared : new JSCCompiler();
+        IncrementalBuild incremental = this.openIncrementalBuild();
+        Map<String, Set<String>> using = this.getUsedClassNames();
+
+        // Each round fixes every ambiguous import implicated by its errors at once.
+        try (ImportDisambiguator disambiguator = new ImportDisambiguator()) {
+            while (true) {
+                Profiler.count("compile rounds");
+                Map<String, String> sources = this.writeSources(tmpDir);
+
+                List<JSCClass> toCompile = this.classList;
+                Set<String> dirty = null;
+                if (incremental != null) {
+                    try (Profiler.Phase ignored = Profiler.phase("incremental")) {
+                        dirty = incremental.prepare(sources, using);
+                    }
+                    toCompile = new ArrayList<>();
+                    for (JSCClass jscClass : this.classList) {
+                        if (dirty.contains(jscClass.getQualifiedName())) {
+                            toCompile.add(jscClass);
+                        }
+                    }
+                }
 
-                if (c == '"' && (i == 0 || chars[i - 1] != '\\')) {
-                    quote = !quote;
+                List<CompileError> errors;
+                if (toCompile.isEmpty()) {
+                    errors = Collections.emptyList();
+                    this.compiledClasses.clear();
+                } else {
+                    try (Profiler.Phase ignored = Profiler.phase("javac")) {
+                        errors = this.compile(compiler, tmpDir, toCompile, incremental);
+                    }
                 }
 
-                if (!quote) {
-                    if (this.charsMatch(chars, key.toCharArray(), i)) {
-                        line = line.substring(0, i) + val + line.substring(i + key.length());
+                if (errors.isEmpty()) {
+                    if (incremental != null) {
+                        try (Profiler.Phase ignored = Profiler.phase("incremental")) {
+                            Map<String, byte[]> compiled = compiler != null ? new TreeMap<>(this.compiledClasses) : readCompiledClasses(tmpDir, toCompile);
+                            this.compiledClasses.putAll(incremental.complete(sources, dirty, compiled, using));
+                        }
                     }
+                    ImportDisambiguator.remember(this.resolve(this.mainClass), this.getAllImports());
+                    return true;
+                }
+
+                if (!disambiguator.disambiguate(this.getAllImports(), errors, this.readSources(tmpDir))) {
+                    StringBuilder message = new StringBuilder("Errors in JSC:").append(System.lineSeparator());
+                    message.append("===============");
+                    for (CompileError error : errors) {
+                        message.append(System.lineSeparator()).append(error);
+                    }
+                    throw new JSCException(message.toString());
+                }
+            }
+        } catch (IOException e) {
+            throw new JSCException("Could not update incremental build state.", e);
+        } finally {
+            if (incremental != null) {
+                try {
+                    incremental.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (compiler != null && compiler != shared) {
+                try {
+                    compiler.close();
+                } catch (IOException ignored) {
                 }
             }
         }
-        return line;
     }
 
-    boolean charsMatch(char[] c0, char[] c1, int offset) {
-        if (offset + c1.length >= c0.length) return false;
+    /**
+     * @return the generated Java of every class, only read back to work out ambiguous imports after errors
+     */
+    private String readSources(Path tmpDir) {
+        StringBuilder code = new StringBuilder();
+        for (JSCClass jscClass : this.classList) {
+            try {
+                code.append(new String(Files.readAllBytes(getSourceFile(tmpDir, jscClass).toPath()), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new JSCException("Could not read the Java source of " + jscClass.getClassNameNoExtension() + ".", e);
+            }
+        }
+        return code.toString();
+    }
+
+    /**
+     * @return the project's incremental build state, or null for a full build
+     */
+    private IncrementalBuild openIncrementalBuild() {
+        if (!App.getInstance().getSettings().INCREMENTAL_COMPILE) {
+            return null;
+        }
+
+        try {
+            return IncrementalBuild.open(this.resolve(this.mainClass));
+        } catch (IOException | OverlappingFileLockException e) {
+            System.out.println("[WARN] Incremental build state unavailable, compiling everything.");
+            return null;
+        }
+    }
+
+    /**
+     * @return qualified names of the classes each class reaches through 'using'
+     */
+    private Map<String, Set<String>> getUsedClassNames() {
+        Map<String, Set<String>> using = new HashMap<>();
+        for (JSCClass jscClass : this.classList) {
+            Set<String> used = new TreeSet<>();
+            for (JSCClass usedClass : jscClass.getUsedClasses()) {
+                used.add(usedClass.getQualifiedName());
+            }
+            using.put(jscClass.getQualifiedName(), used);
+        }
+        return using;
+    }
 
-        for (int i = 0; i < c1.length; i++) {
-            if (c1[i] != c0[offset + i]) {
-                return false;
+    /**
+     * @return the class files javac wrote for the given classes, keyed by binary name
+     */
+    private static Map<String, byte[]> readCompiledClasses(Path tmpDir, List<JSCClass> classes) throws IOException {
+        Map<String, byte[]> compiled = new TreeMap<>();
+        for (JSCClass jscClass : classes) {
+            String prefix = jscClass.getPackage() == null ? "" : jscClass.getPackage() + ".";
+            File dir = new File(tmpDir + File.separator + "bin", prefix.replace('.', File.separatorChar));
+            String name = jscClass.getClassNameNoExtension();
+
+            File[] files = dir.listFiles((d, fileName) -> fileName.equals(name + ".class") || (fileName.startsWith(name + "$") && fileName.endsWith(".class")));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String fileName = file.getName();
+                compiled.put(prefix + fileName.substring(0, fileName.length() - ".class".length()), Files.readAllBytes(file.toPath()));
             }
         }
-        return true;
+        return compiled;
     }
 
-    public boolean compileAll(Path tmpDir) {
+    private List<CompileError> compileWithJavac(Path tmpDir, List<JSCClass> toCompile, List<String> classpath) {
         Path JAVAC_LOCATION = Paths.get(App.getInstance().getSettings().JDK_LOCATION + File.separator + "bin" + File.separator);
 
         List<String> javac_args = new ArrayList<>();
 
         javac_args.add(JAVAC_LOCATION + File.separator + "javac");
         javac_args.add("-nowarn");
+        javac_args.add("-encoding");
+        javac_args.add("UTF-8");
 
-        List<String> libs = gatherLibs();
-        if (libs.size() > 0) {
+        if (classpath.size() > 1) {
             javac_args.add("-classpath");
             StringBuilder sb = new StringBuilder();
-            sb.append(".");
-            for (String s : libs) {
-                sb.append(App.getInstance().getOs().toLowerCase(Locale.ROOT).contains("windows") ? ";" : ":").append(s);
+            for (String s : classpath) {
+                if (sb.length() > 0) sb.append(App.getInstance().getOs().toLowerCase(Locale.ROOT).contains("windows") ? ";" : ":");
+                sb.append(s);
             }
             javac_args.add(sb.toString());
         }
@@ -139,8 +323,9 @@ public class JSCHandler {
         javac_args.add(tmpDir + File.separator + "bin");
 
         Path srcDir = Paths.get(tmpDir + File.separator + "src");
+        Map<String, JSCClass> sourceFiles = new HashMap<>();
 
-        for (JSCClass jscClass : this.classList) {
+        for (JSCClass jscClass : toCompile) {
             StringBuilder jscClassPath = new StringBuilder();
             jscClassPath.append(srcDir).append(File.separator);
             if (jscClass.getPackage() != null) {
@@ -148,181 +333,283 @@ public class JSCHandler {
             }
             jscClassPath.append(jscClass.getClassNameNoExtension()).append(".java");
             javac_args.add(jscClassPath.toString());
+            sourceFiles.put(jscClassPath.toString(), jscClass);
         }
 
 
         String[] args = javac_args.toArray(new String[0]);
+        List<CompileError> errors = new ArrayList<>();
 
         try {
             Process compiler = Runtime.getRuntime().exec(args);
-            compiler.waitFor(2000L, TimeUnit.MILLISECONDS);
 
-            InputStream err = compiler.getErrorStream();
-            Scanner sc = new Scanner(err);
+            // Drain stderr until javac exits, instead of guessing how long it takes.
+            Scanner sc = new Scanner(compiler.getErrorStream());
+            Pattern pattern = Pattern.compile("^(.+\\.java):(\\d+): error: (.*)$");
 
-            Pattern pattern = Pattern.compile("(.+)(/)(.+)(:)(\\d+)(:)(.+)(error)");
+            String file = null;
+            long lineNumber = 0;
+            StringBuilder message = null;
             while (sc.hasNextLine()) {
                 String s = sc.nextLine();
                 Matcher m = pattern.matcher(s);
                 if (m.find()) {
-                    if (m.groupCount() == 8) {
-                        boolean result = this.correctImportByLineNumber(m.group(1) + File.separator + m.group(3), m.group(5));
-                        if (result) {
-                            // Recur with new JavaImport in place.
-                            this.writeClasses(tmpDir);
-                            return this.compileAll(tmpDir);
-                        } else {
-                            if (!this.looseCorrectImport(s)) {
-                                System.out.println("Errors in JSC:");
-                                System.out.println("===============");
-                                System.out.println(s);
-                                while (sc.hasNextLine()) {
-                                    System.out.println(sc.nextLine());
-                                }
-                                System.exit(-1);
-                            } else {
-                                // Also check that the loose correction didn't fix it.
-                                this.writeClasses(tmpDir);
-                                return this.compileAll(tmpDir);
-                            }
-                        }
+                    if (message != null) {
+                        errors.add(this.toCompileError(sourceFiles, file, lineNumber, message.toString()));
                     }
+                    file = m.group(1);
+                    lineNumber = Long.parseLong(m.group(2));
+                    message = new StringBuilder(m.group(3));
+                } else if (message != null && (s.trim().startsWith("symbol:") || s.trim().startsWith("location:"))) {
+                    message.append(System.lineSeparator()).append(s);
                 }
             }
+            if (message != null) {
+                errors.add(this.toCompileError(sourceFiles, file, lineNumber, message.toString()));
+            }
+
+            if (compiler.waitFor() != 0 && errors.isEmpty()) {
+                errors.add(new CompileError(null, 0, "javac exited with " + compiler.exitValue(), ""));
+            }
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
+            errors.add(new CompileError(null, 0, "Could not run javac: " + e.getMessage(), ""));
         }
 
-        return true;
+        return errors;
     }
 
-    private boolean looseCorrectImport(String rawError) {
-        for (JSCClass jscClass : this.classList) {
-            for (JavaImport javaImport : jscClass.getImports()) {
-                if (rawError.contains(" " + javaImport.getRaw() + " ")) {
-                    return javaImport.increment();
-                }
-            }
+    private CompileError toCompileError(Map<String, JSCClass> sourceFiles, String file, long lineNumber, String message) {
+        String line = "";
+        try (Stream<String> lines = Files.lines(Paths.get(file), StandardCharsets.UTF_8)) {
+            line = lines.skip(lineNumber - 1).findFirst().orElse("");
+        } catch (IOException ignored) {
         }
-        return false;
+        return new CompileError(sourceFiles.get(file), lineNumber, message, line);
     }
 
-    private boolean correctImportByLineNumber(String className, String lineNumber) throws IOException {
-        Optional<String> lines = Files.lines(Paths.get(className)).skip(Long.parseLong(lineNumber) - 1).findFirst();
-        if (lines.isPresent()) {
-            String line = lines.get();
-            for (JSCClass jscClass : this.classList) {
-                for (JavaImport javaImport : jscClass.getImports()) {
-                    if (line.endsWith(javaImport.getCurrentImport() + ";")) {
-                        return javaImport.increment();
-                    }
-                }
+    /**
+     * Compiles the classes in groups on several threads where COMPILE_PARALLELISM and the shape of the script
+     * allow, or else all in one batch. A split compile that fails is compiled again in one batch, so errors are
+     * always those of a plain compile, i.e. for a class calling another it has no 'using' for.
+     */
+    private List<CompileError> compile(JSCCompiler compiler, Path tmpDir, List<JSCClass> toCompile, IncrementalBuild incremental) {
+        int parallelism = getCompileParallelism();
+        if (parallelism > 1 && toCompile.size() > 1) {
+            CompileGroups groups = CompileGroups.plan(toCompile, parallelism, jscClass -> getSourceFile(tmpDir, jscClass).length());
+            if (groups.isSplit() && this.compileInGroups(compiler, tmpDir, groups, incremental).isEmpty()) {
+                return Collections.emptyList();
             }
         }
 
-        return false;
-    }
+        if (compiler == null) {
+            return this.compileWithJavac(tmpDir, toCompile, this.getClasspath(incremental, null));
+        }
 
-    public List<String> gatherLibs() {
-        List<String> libs = new ArrayList<>();
-        for (JSCClass jscClass : this.classList) {
-            for (JavaImport javaImport : jscClass.getImports()) {
-                if (javaImport.getCurrentLibrary() != null) {
-                    if (!libs.contains(javaImport.getCurrentLibrary())) {
-                        libs.add(javaImport.getCurrentLibrary());
-                    }
-                }
-            }
+        JSCCompiler.Result result = compiler.compile(getSources(tmpDir, toCompile), this.getClasspath(incremental, null));
+        if (!result.isSuccess()) {
+            return result.getErrors();
         }
-        return libs;
+
+        this.compiledClasses.clear();
+        this.compiledClasses.putAll(result.getClasses());
+        return Collections.emptyList();
     }
 
-    public boolean pack(Path tempDir) {
-        Path JDK_BIN_LOC = Paths.get(App.getInstance().getSettings().JDK_LOCATION + File.separator + "bin" + File.separator);
-        File binFiles = new File(tempDir + File.separator + "bin");
+    private static int getCompileParallelism() {
+        int parallelism = App.getInstance().getSettings().COMPILE_PARALLELISM;
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
 
-        List<String> jarArgs = new ArrayList<>();
-        jarArgs.add(JDK_BIN_LOC + File.separator + "jar");
+    /**
+     * Compiles the stages of the groups in order, the batches of a stage at once. javac writes every batch to the
+     * bin directory and reads earlier ones back from there. In-process batches each take a compiler of their own,
+     * as javac's file manager is not thread-safe, and write their classes to the groups directory for later
+     * stages, besides keeping them in memory.
+     */
+    private List<CompileError> compileInGroups(JSCCompiler compiler, Path tmpDir, CompileGroups groups, IncrementalBuild incremental) {
+        // Class files of an earlier round would stand in for classes not compiled yet.
+        File groupsDir = new File(tmpDir + File.separator + (compiler == null ? "bin" : "groups"));
+        deleteClassFiles(groupsDir);
+        // A reused file manager remembers a classpath directory that is missing for good.
+        if (!groupsDir.isDirectory() && !groupsDir.mkdirs()) {
+            throw new JSCException("Could not create " + groupsDir.getName() + " directory.");
+        }
+        List<String> classpath = this.getClasspath(incremental, groupsDir);
 
-        jarArgs.add("cfm");
-        jarArgs.add("JSCRuntime.jar");
+        Queue<JSCCompiler> idle = new ConcurrentLinkedQueue<>();
+        List<JSCCompiler> created = Collections.synchronizedList(new ArrayList<>());
+        if (compiler != null) {
+            idle.add(compiler);
+            this.compiledClasses.clear();
+        }
 
+        AtomicInteger workers = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(groups.getWidth(), r -> {
+            Thread thread = new Thread(r, "jsc-javac-" + workers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
         try {
-            String mcName;
+            return groups.compile(pool, classes -> {
+                try (Profiler.Phase ignored = Profiler.phase("javac batch", classes.size() + " classes")) {
+                    if (compiler == null) {
+                        return this.compileWithJavac(tmpDir, classes, classpath);
+                    }
 
-            if (this.mainJSCObj.getPackage() != null) {
-                mcName = this.mainJSCObj.getPackage() + "." + this.mainJSCObj.getClassNameNoExtension();
-            } else {
-                mcName = this.mainJSCObj.getClassNameNoExtension();
+                    JSCCompiler worker = idle.poll();
+                    if (worker == null) {
+                        worker = new JSCCompiler();
+                        created.add(worker);
+                    }
+                    try {
+                        JSCCompiler.Result result = worker.compile(getSources(tmpDir, classes), classpath);
+                        if (!result.isSuccess()) {
+                            return result.getErrors();
+                        }
+                        writeClassFiles(groupsDir, result.getClasses());
+                        synchronized (this.compiledClasses) {
+                            this.compiledClasses.putAll(result.getClasses());
+                        }
+                        return Collections.<CompileError>emptyList();
+                    } finally {
+                        idle.add(worker);
+                    }
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSCException("Interrupted while compiling.", e);
+        } finally {
+            pool.shutdownNow();
+            for (JSCCompiler worker : created) {
+                try {
+                    worker.close();
+                } catch (IOException ignored) {
+                }
             }
+        }
+    }
 
-            FileWriter writer = new FileWriter(tempDir + File.separator + "temp.mf");
-            writer.write("Main-Class: " + mcName + System.lineSeparator());
-            StringBuilder cp = new StringBuilder();
-            boolean b = false;
-            for (String s : gatherLibs()) {
-                if (b) cp.append(" ");
-                cp.append(s.replace(" ", "%20"));
-                b = true;
+    private static List<JSCCompiler.Source> getSources(Path tmpDir, List<JSCClass> classes) {
+        List<JSCCompiler.Source> sources = new ArrayList<>();
+        for (JSCClass jscClass : classes) {
+            sources.add(new JSCCompiler.Source(jscClass, jscClass.getQualifiedName(), getSourceFile(tmpDir, jscClass).toPath()));
+        }
+        return sources;
+    }
+
+    /**
+     * @param groupsDir class files of batches compiled before, or null
+     * @return the classpath of a compile: the working directory, earlier batches, the libraries and, for an
+     * incremental build, the reused classes
+     */
+    private List<String> getClasspath(IncrementalBuild incremental, File groupsDir) {
+        List<String> classpath = new ArrayList<>();
+        classpath.add(".");
+        if (groupsDir != null) {
+            classpath.add(groupsDir.getAbsolutePath());
+        }
+        classpath.addAll(gatherLibs());
+        if (incremental != null) {
+            classpath.add(incremental.getClassDirectory().getAbsolutePath());
+        }
+        return classpath;
+    }
+
+    private static void writeClassFiles(File dir, Map<String, byte[]> classes) throws IOException {
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            File file = new File(dir, entry.getKey().replace('.', File.separatorChar) + ".class");
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Could not create " + file.getParentFile());
             }
-            writer.write("Class-Path: " + cp + System.lineSeparator());
-            writer.close();
+            Files.write(file.toPath(), entry.getValue());
+        }
+    }
 
-            jarArgs.add(tempDir + File.separator + "temp.mf");
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(-1);
+    private static void deleteClassFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
         }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteClassFiles(file);
+            } else if (file.getName().endsWith(".class") && !file.delete()) {
+                throw new JSCException("Could not delete " + file + ".");
+            }
+        }
+    }
 
+    /**
+     * @return the imports of every class, including those pulled in through 'ext'
+     */
+    List<JavaImport> getAllImports() {
+        List<JavaImport> imports = new ArrayList<>();
         for (JSCClass jscClass : this.classList) {
-            jarArgs.add("-C");
-            jarArgs.add(binFiles.getAbsolutePath());
-            String targetPath = "";
-
-            if (jscClass.getPackage() != null) {
-                jarArgs.add(jscClass.getPackage().replace(".", File.separator) + File.separator + jscClass.getClassNameNoExtension() + ".class");
-                targetPath += jscClass.getPackage().replace(".", File.separator) + File.separator;
-            } else {
-                jarArgs.add(jscClass.getClassNameNoExtension() + ".class");
+            for (JSCClass ext : jscClass.getMethodExtensions()) {
+                imports.addAll(ext.getImports());
             }
+            imports.addAll(jscClass.getImports());
+        }
+        return imports;
+    }
 
-            int i = 0;
-            File file = new File (binFiles.getAbsolutePath() + File.separator + targetPath + jscClass.getClassNameNoExtension() + "$" + i + ".class");
-            while (file.exists() || i < 1) {
-                if (file.exists()) {
-                    jarArgs.add("-C");
-                    jarArgs.add(binFiles.getAbsolutePath());
-                    jarArgs.add(targetPath + jscClass.getClassNameNoExtension() + "$" + i + ".class");
+    public List<String> gatherLibs() {
+        List<String> libs = new ArrayList<>();
+        for (JavaImport javaImport : this.getAllImports()) {
+            if (javaImport.getCurrentLibrary() != null) {
+                if (!libs.contains(javaImport.getCurrentLibrary())) {
+                    libs.add(javaImport.getCurrentLibrary());
                 }
-                i++;
-                file = new File (binFiles.getAbsolutePath() + File.separator + targetPath + jscClass.getClassNameNoExtension() + "$" + i + ".class");
-                Thread.yield();
             }
         }
+        return libs;
+    }
 
-
-
-        try {
-            Process jar = Runtime.getRuntime().exec(jarArgs.toArray(new String[0]));
-            jar.waitFor();
-
-            InputStream err = jar.getErrorStream();
-            Scanner sc = new Scanner(err);
-            if (sc.hasNextLine()) {
-                System.out.println("ERRORS WHILE CREATING ARCHIVE:");
+    /**
+     * Writes the script jar in-process. Entries are the class files javac wrote to the bin directory, found in
+     * a single walk, and the class bytes held in memory. Entries are sorted and carry a fixed timestamp, so
+     * the same classes always give the same jar.
+     */
+    public boolean pack(Path tempDir, File jarFile) {
+        try (Profiler.Phase ignored = Profiler.phase("pack")) {
+            SortedMap<String, byte[]> entries = new TreeMap<>();
+            Path binDir = tempDir.resolve("bin");
+            if (Files.isDirectory(binDir)) {
+                try (Stream<Path> files = Files.walk(binDir)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        if (file.toString().endsWith(".class") && Files.isRegularFile(file)) {
+                            entries.put(binDir.relativize(file).toString().replace(File.separatorChar, '/'), Files.readAllBytes(file));
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<String, byte[]> entry : this.compiledClasses.entrySet()) {
+                entries.put(entry.getKey().replace('.', '/') + ".class", entry.getValue());
             }
 
-            boolean errored = false;
-            while (sc.hasNextLine()) {
-                System.out.println(sc.nextLine());
-                errored = true;
+            Manifest manifest = new Manifest();
+            Attributes attributes = manifest.getMainAttributes();
+            attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            attributes.put(Attributes.Name.MAIN_CLASS, this.mainJSCObj.getQualifiedName());
+            StringBuilder cp = new StringBuilder();
+            for (String s : gatherLibs()) {
+                if (cp.length() > 0) cp.append(" ");
+                cp.append(s.replace(" ", "%20"));
+            }
+            if (cp.length() > 0) {
+                attributes.put(Attributes.Name.CLASS_PATH, cp.toString());
             }
 
-            return !errored;
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
+            try {
+                JarWriter.write(jarFile, manifest, entries, App.getInstance().getSettings().PACK_UNCOMPRESSED);
+            } catch (IOException e) {
+                throw new JSCException("Could not write " + jarFile.getName() + ".", e);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new JSCException("Could not read compiled classes.", e);
         }
-
-        return false;
     }
 }
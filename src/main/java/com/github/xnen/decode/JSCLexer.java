@@ -0,0 +1,216 @@
+package com.github.xnen.decode;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * @author xnen
+ * Single pass tokenizer that splits JSC source into statement units, reading from a Reader in blocks.
+ *
+ * Outside of braces, every line and every ';' ends a unit. Inside braces, lines are joined until the
+ * braces close. Comments are dropped. String, char and text block literals are copied verbatim, so quotes,
+ * braces, ';' and comment markers inside them don't count.
+ */
+public class JSCLexer {
+    private static final int BLOCK_SIZE = 8192;
+
+    private enum State {
+        CODE, LINE_COMMENT, BLOCK_COMMENT, STRING, CHAR, TEXT_BLOCK
+    }
+
+    private final Reader reader;
+    private final char[] block = new char[BLOCK_SIZE];
+    private int position;
+    private int limit;
+
+    private final StringBuilder unit = new StringBuilder();
+    private final Consumer<String> units;
+
+    /** Set once the reader is exhausted: whether it ended outside of braces, literals and block comments. */
+    private boolean complete;
+
+    private JSCLexer(Reader reader, Consumer<String> units) {
+        this.reader = reader;
+        this.units = units;
+    }
+
+    /**
+     * Tokenizes everything the reader has, handing each unit to the consumer as soon as it is complete.
+     * The last unit is always emitted, even if empty.
+     */
+    public static void lex(Reader reader, Consumer<String> units) throws IOException {
+        new JSCLexer(reader, units).run();
+    }
+
+    /**
+     * @return true if the source ends outside of braces, literals and block comments, i.e. a prompt input
+     * needs no further lines
+     */
+    public static boolean isComplete(String source) {
+        JSCLexer lexer = new JSCLexer(new StringReader(source), unit -> { });
+        try {
+            lexer.run();
+        } catch (IOException e) {
+            // Not thrown by a StringReader.
+            throw new UncheckedIOException(e);
+        }
+        return lexer.complete;
+    }
+
+    private void run() throws IOException {
+        State state = State.CODE;
+        int depth = 0;
+        // A line ended outside of braces, so the unit ends once another line starts.
+        boolean lineEnded = false;
+
+        int c;
+        while ((c = this.next()) != -1) {
+            if (lineEnded) {
+                lineEnded = false;
+                if (this.unit.length() > 0) {
+                    this.emit();
+                }
+            }
+
+            if (c == '\r' || c == '\n') {
+                if (c == '\r' && this.peek() == '\n') {
+                    this.next();
+                }
+
+                switch (state) {
+                    case TEXT_BLOCK:
+                        this.unit.append('\n');
+                        continue;
+                    case BLOCK_COMMENT:
+                        continue;
+                    default:
+                        // Unterminated string and char literals end with their line, like javac would report.
+                        state = State.CODE;
+                        lineEnded = depth == 0;
+                        continue;
+                }
+            }
+
+            switch (state) {
+                case LINE_COMMENT:
+                    break;
+
+                case BLOCK_COMMENT:
+                    if (c == '*' && this.peek() == '/') {
+                        this.next();
+                        state = State.CODE;
+                    }
+                    break;
+
+                case STRING:
+                case CHAR:
+                    this.unit.append((char) c);
+                    if (c == '\\') {
+                        this.appendEscaped();
+                    } else if (c == (state == State.STRING ? '"' : '\'')) {
+                        state = State.CODE;
+                    }
+                    break;
+
+                case TEXT_BLOCK:
+                    this.unit.append((char) c);
+                    if (c == '\\') {
+                        this.appendEscaped();
+                    } else if (c == '"' && this.peek() == '"') {
+                        this.unit.append((char) this.next());
+                        if (this.peek() == '"') {
+                            this.unit.append((char) this.next());
+                            state = State.CODE;
+                        }
+                    }
+                    break;
+
+                case CODE:
+                    if (c == '/' && this.peek() == '/') {
+                        this.next();
+                        state = State.LINE_COMMENT;
+                        break;
+                    }
+                    if (c == '/' && this.peek() == '*') {
+                        this.next();
+                        state = State.BLOCK_COMMENT;
+                        break;
+                    }
+
+                    this.unit.append((char) c);
+                    if (c == '"') {
+                        state = State.STRING;
+                        if (this.peek() == '"') {
+                            // Either an empty string, or the opening of a text block.
+                            this.unit.append((char) this.next());
+                            state = State.CODE;
+                            if (this.peek() == '"') {
+                                this.unit.append((char) this.next());
+                                state = State.TEXT_BLOCK;
+                            }
+                        }
+                    } else if (c == '\'') {
+                        state = State.CHAR;
+                    } else if (c == '{') {
+                        depth++;
+                    } else if (c == '}') {
+                        depth--;
+                    } else if (c == ';' && depth == 0) {
+                        // Every semi-colon needs formatted as 'its own line' in Java.
+                        this.emit();
+                    }
+                    break;
+            }
+        }
+
+        // Final add
+        this.emit();
+        this.complete = depth <= 0 && (state == State.CODE || state == State.LINE_COMMENT);
+    }
+
+    /**
+     * Copies the character after a backslash, so an escaped quote doesn't end the literal.
+     */
+    private void appendEscaped() throws IOException {
+        int peeked = this.peek();
+        if (peeked != -1 && peeked != '\r' && peeked != '\n') {
+            this.unit.append((char) this.next());
+        }
+    }
+
+    private void emit() {
+        this.units.accept(this.unit.toString());
+        this.unit.setLength(0);
+    }
+
+    private int next() throws IOException {
+        if (this.position == this.limit && !this.fill()) {
+            return -1;
+        }
+        return this.block[this.position++];
+    }
+
+    private int peek() throws IOException {
+        if (this.position == this.limit && !this.fill()) {
+            return -1;
+        }
+        return this.block[this.position];
+    }
+
+    private boolean fill() throws IOException {
+        int read;
+        do {
+            read = this.reader.read(this.block, 0, this.block.length);
+        } while (read == 0);
+
+        if (read == -1) {
+            return false;
+        }
+        this.position = 0;
+        this.limit = read;
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.profile.Profiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author xnen
+ * Loads a JSC file and every file it reaches through 'using' and 'ext' as a dependency graph.
+ * Each file is read and parsed exactly once, keyed by its canonical path, with all files parsed in parallel
+ * as soon as they are discovered. 'using' cycles are fine, since the classes are compiled together;
+ * 'ext' cycles are errors.
+ */
+class JSCLoader {
+    private final JSCHandler handler;
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private Node main;
+
+    JSCLoader(JSCHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Parses the graph and links every class to its 'using' and 'ext' classes.
+     * @return the main class
+     */
+    JSCClass load(File mainFile) {
+        this.main = this.submit(mainFile);
+        try {
+            this.done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+
+        for (Node node : this.nodes.values()) {
+            for (Node used : node.using) {
+                node.jscClass.addUsedClass(used.jscClass);
+            }
+            for (Node ext : node.ext) {
+                node.jscClass.addMethodExtension(ext.jscClass);
+            }
+        }
+        Set<Node> finished = new HashSet<>();
+        for (Node node : this.nodes.values()) {
+            this.checkExtCycles(node, finished, new ArrayDeque<>());
+        }
+        return this.main.jscClass;
+    }
+
+    /**
+     * @return the main class and every class reached through 'using', each once, dependencies first
+     */
+    List<JSCClass> getClassList() {
+        List<JSCClass> classList = new ArrayList<>();
+        this.collect(this.main, new HashSet<>(), classList);
+        return classList;
+    }
+
+    private void collect(Node node, Set<Node> visited, List<JSCClass> classList) {
+        if (!visited.add(node)) {
+            return;
+        }
+
+        for (Node used : node.using) {
+            this.collect(used, visited, classList);
+        }
+        for (Node ext : node.ext) {
+            this.collect(ext, visited, classList);
+        }
+
+        if (node == this.main || node.used) {
+            classList.add(node.jscClass);
+        }
+    }
+
+    private void checkExtCycles(Node node, Set<Node> finished, Deque<Node> path) {
+        if (finished.contains(node)) {
+            return;
+        }
+        if (path.contains(node)) {
+            StringBuilder cycle = new StringBuilder("Cyclic ext: ");
+            Iterator<Node> it = path.descendingIterator();
+            while (it.hasNext()) {
+                Node inCycle = it.next();
+                if (cycle.length() > "Cyclic ext: ".length() || inCycle == node) {
+                    cycle.append(inCycle.jscClass.getClassName()).append(" -> ");
+                }
+            }
+            throw new JSCException(cycle.append(node.jscClass.getClassName()).append('.').toString());
+        }
+
+        path.push(node);
+        for (Node ext : node.ext) {
+            this.checkExtCycles(ext, finished, path);
+        }
+        path.pop();
+        finished.add(node);
+    }
+
+    private Node submit(File file) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+
+        Node node = this.nodes.get(path);
+        if (node != null) {
+            return node;
+        }
+
+        Node created = new Node(file);
+        node = this.nodes.putIfAbsent(path, created);
+        if (node != null) {
+            return node;
+        }
+
+        this.pending.incrementAndGet();
+        ForkJoinPool.commonPool().execute(() -> this.parse(created));
+        return created;
+    }
+
+    private void parse(Node node) {
+        try {
+            // Formatted lines are parsed as they are read, so a file is never held whole.
+            JSCClass jscClass;
+            try (Profiler.Phase ignored = Profiler.phase("parse", node.file.getName())) {
+                jscClass = JSCParser.parse(this.handler, node.file);
+            }
+            for (String fileName : jscClass.getUsedFiles()) {
+                Node used = this.submit(this.handler.resolve(fileName));
+                used.used = true;
+                node.using.add(used);
+            }
+            for (String fileName : jscClass.getExtendedFiles()) {
+                node.ext.add(this.submit(this.handler.resolve(fileName)));
+            }
+            node.jscClass = jscClass;
+        } catch (RuntimeException e) {
+            this.done.completeExceptionally(e);
+        } finally {
+            // Children were counted before this, so the count only reaches zero once the whole graph is parsed.
+            if (this.pending.decrementAndGet() == 0) {
+                this.done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * A JSC file, the only one for its canonical path. Written by its parse task, read after the whole graph is done.
+     */
+    private static class Node {
+        private final File file;
+        private final List<Node> using = new ArrayList<>();
+        private final List<Node> ext = new ArrayList<>();
+        private volatile boolean used;
+        private JSCClass jscClass;
+
+        Node(File file) {
+            this.file = file;
+        }
+    }
+}
@@ -1,32 +1,152 @@
 package com.github.xnen.decode;
 
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
 
 public class JSCParser {
     public static JSCClass parse(JSCHandler jscHandler, String className, List<String> lines) {
-        JSCClass parsed = new JSCClass(className);
+        return parse(jscHandler.getImportResolver(), className, lines);
+    }
+
+    public static JSCClass parse(ImportResolver importResolver, String className, List<String> lines) {
+        LineParser parser = new LineParser(importResolver, className);
+        lines.forEach(parser);
+        return parser.parsed;
+    }
 
-        int lineNumber = 0;
+    /**
+     * Parses a JSC file while it is read, without holding its formatted lines.
+     */
+    public static JSCClass parse(JSCHandler jscHandler, File jscFile) {
+        LineParser parser = new LineParser(jscHandler.getImportResolver(), jscFile.getName());
+        JSCFormatter.format(jscFile, parser);
+        return parser.parsed;
+    }
+
+    /**
+     * @return every JSC file referenced through 'using' or 'ext' in the formatted lines of a JSC file
+     */
+    public static List<String> getReferencedFiles(String className, List<String> lines) {
+        List<String> files = new ArrayList<>();
         for (String line : lines) {
-            if (line.trim().length() > 0) {
-                lineNumber++;
+            addReferencedFile(className, line, files);
+        }
+        return files;
+    }
+
+    private static void addReferencedFile(String className, String line, List<String> files) {
+        if ((line.startsWith("using ") || line.startsWith("ext ")) && line.contains("\"") && line.endsWith(";")) {
+            String fileName = getReferencedFile(line);
+            if (!isSelfReference(fileName, className)) {
+                files.add(fileName);
             }
+        }
+    }
 
-            if (lineNumber == 1 && line.startsWith("pkg ") && line.endsWith(";")) {
-                parsed.setPackage(line.substring("pkg ".length(), line.length() - 1));
+    /**
+     * @param baseDir directory relative 'using'/'ext' names are resolved against, or null for the working directory
+     * @return the main file and every JSC file it reaches through 'using' or 'ext', each once, in discovery order
+     */
+    public static List<File> getReachableFiles(File mainFile, File baseDir) throws IOException {
+        List<File> files = new ArrayList<>();
+        Deque<File> pending = new ArrayDeque<>();
+        Set<String> seen = new HashSet<>();
+        pending.add(mainFile);
+        while (!pending.isEmpty()) {
+            File file = pending.poll();
+            if (!seen.add(file.getCanonicalPath())) {
                 continue;
             }
 
+            files.add(file);
+            List<String> referencedFiles = new ArrayList<>();
+            String className = file.getName();
+            JSCFormatter.format(file, line -> addReferencedFile(className, line, referencedFiles));
+            for (String referenced : referencedFiles) {
+                File referencedFile = new File(referenced);
+                pending.add(referencedFile.isAbsolute() || baseDir == null ? referencedFile : new File(baseDir, referenced));
+            }
+        }
+        return files;
+    }
+
+    private static String getReferencedFile(String line) {
+        String refLine = line.substring(line.indexOf(' ') + 2);
+        String fileName = refLine.substring(0, refLine.lastIndexOf("\""));
+        if (!fileName.contains(".")) {
+            fileName = fileName + ".jsc";
+        }
+        return fileName;
+    }
+
+    private static boolean isSelfReference(String fileName, String className) {
+        return fileName.substring(0, fileName.lastIndexOf(".")).equalsIgnoreCase(className.substring(0, className.lastIndexOf(".")));
+    }
+
+    private static boolean isClassScopeIdentifier(String s) {
+        for (String s0 : class_scope_identifiers) {
+            if (s.trim().startsWith(s0)) {
+                return true;
+            }
+        }
+
+        return s.trim().startsWith("@");
+    }
+
+
+    static final String[] class_scope_identifiers = {
+            "abstract"
+            , "class"
+            , "default"
+            , "enum"
+            , "native"
+            , "private"
+            , "protected"
+            , "public"
+            , "static"
+            , "transient"
+            , "void"
+            , "volatile"
+            , "svoid"
+            , "cvar"
+    };
+
+    /**
+     * Parses formatted lines one at a time into a class.
+     */
+    private static class LineParser implements Consumer<String> {
+        private final ImportResolver importResolver;
+        private final JSCClass parsed;
+        private int lineNumber;
+
+        LineParser(ImportResolver importResolver, String className) {
+            this.importResolver = importResolver;
+            this.parsed = new JSCClass(className);
+        }
+
+        @Override
+        public void accept(String line) {
+            if (line.trim().length() > 0) {
+                this.lineNumber++;
+            }
+
+            if (this.lineNumber == 1 && line.startsWith("pkg ") && line.endsWith(";")) {
+                this.parsed.setPackage(line.substring("pkg ".length(), line.length() - 1));
+                return;
+            }
+
             // First line identifiers -- i.e. #!abstract<K> ext Thread
-            if (lineNumber <= 2 && line.startsWith("#!")) {
+            if (this.lineNumber <= 2 && line.startsWith("#!")) {
                 int offset = "#!".length();
 
                 // Parse CLASS TYPE
                 if (line.startsWith("interface", offset)) {
-                    parsed.setModifier(JSCClass.C_MODIFIER.INTERFACE);
+                    this.parsed.setModifier(JSCClass.C_MODIFIER.INTERFACE);
                     offset += "interface".length();
                 } else if (line.startsWith("abstract", offset)) {
-                    parsed.setModifier(JSCClass.C_MODIFIER.ABSTRACT);
+                    this.parsed.setModifier(JSCClass.C_MODIFIER.ABSTRACT);
                     offset += "abstract".length();
                 } else if (line.startsWith("class", offset)) {
                     // Default CLASS
@@ -37,7 +157,7 @@ public class JSCParser {
                     // Parse GENERIC TYPE CLASS PROPERTIES
                     if (line.charAt(offset) == '<') {
                         String GT = line.substring(1 + offset, line.indexOf('>'));
-                        parsed.setGenericTypes(GT.split(","));
+                        this.parsed.setGenericTypes(GT.split(","));
                         offset += 2 + GT.length();
                     }
 
@@ -54,7 +174,7 @@ public class JSCParser {
                             extendingClass = extLine;
                         }
 
-                        parsed.setExtendingClass(extendingClass);
+                        this.parsed.setExtendingClass(extendingClass);
                         offset += extendingClass.length();
                     }
 
@@ -62,23 +182,23 @@ public class JSCParser {
                     String implementsTrimCompare = line.substring(offset);
                     if (implementsTrimCompare.trim().startsWith("impl ")) {
                         offset += "impl ".length() + (implementsTrimCompare.length() - implementsTrimCompare.trim().length());
-                        parsed.setImplementingClasses(line.substring(offset).split(","));
+                        this.parsed.setImplementingClasses(line.substring(offset).split(","));
                     }
                 }
 
-                // Continue, since this isn't valid Java code to be parsed.
-                continue;
+                // Skip it, since this isn't valid Java code to be parsed.
+                return;
             }
 
             // Parse imports
             if (line.startsWith("import ") && line.endsWith(";")) {
                 if (line.startsWith("import static ")) {
-                    parsed.addStaticImport(line.substring("import static ".length(), line.lastIndexOf(";")));
+                    this.parsed.addStaticImport(line.substring("import static ".length(), line.lastIndexOf(";")));
                 } else {
-                    parsed.addImport(new JavaImport(line.substring("import ".length(), line.lastIndexOf(';'))));
+                    this.parsed.addImport(new JavaImport(line.substring("import ".length(), line.lastIndexOf(';')), this.importResolver));
                 }
 
-                continue;
+                return;
             }
 
             // Import while specifying a library to use
@@ -87,15 +207,15 @@ public class JSCParser {
                     String libLine = line.substring("from ".length() + 1);
                     String library = libLine.substring(0, libLine.indexOf('"'));
                     String impLine = libLine.substring(library.length() + 2 + "import ".length());
-                    parsed.addImport(new JavaImport(impLine.substring(0, impLine.lastIndexOf(";")), library));
+                    this.parsed.addImport(new JavaImport(impLine.substring(0, impLine.lastIndexOf(";")), library, this.importResolver));
                 } else {
                     // TODO: Sloppy fix, clean up (Test if quotes exist and handle them as one regardless of spaces)
                     String libLine = line.substring("from ".length());
                     String library = libLine.substring(0, libLine.indexOf(' '));
                     String impLine = libLine.substring(library.length() + 1 + "import ".length());
-                    parsed.addImport(new JavaImport(impLine.substring(0, impLine.lastIndexOf(";")), library));
+                    this.parsed.addImport(new JavaImport(impLine.substring(0, impLine.lastIndexOf(";")), library, this.importResolver));
                 }
-                continue;
+                return;
             }
 
             // Macros
@@ -112,36 +232,27 @@ public class JSCParser {
                     if (qId % 2 == 1) resultBuffer[qId / 3] += c;
                     pChar = c;
                 }
-                parsed.addMacro(resultBuffer);
-                continue;
+                this.parsed.addMacro(resultBuffer);
+                return;
             }
 
             // Parse other JSC file imports
             if (line.startsWith("using ") && line.contains("\"") && line.endsWith(";")) {
-                String usingLine = line.substring("using ".length() + 1);
-                String fileName = usingLine.substring(0, usingLine.lastIndexOf("\""));
-                if (!fileName.contains(".")) {
-                    fileName = fileName + ".jsc";
-                }
-
-                if (!fileName.substring(0, fileName.lastIndexOf(".")).equalsIgnoreCase(parsed.getClassNameNoExtension())) {
-                    // Start handling new JSC file
-                    jscHandler.handle(fileName, true);
+                String fileName = getReferencedFile(line);
+                if (!isSelfReference(fileName, this.parsed.getClassName())) {
+                    // Loaded by JSCLoader once this file is parsed
+                    this.parsed.addUsedFile(fileName);
                 }
-                continue;
+                return;
             }
 
             // Add another JSC file's functions to this class.
             if (line.startsWith("ext ") && line.contains("\"") && line.endsWith(";")) {
-                String extLine = line.substring("ext ".length() + 1);
-                String fileName = extLine.substring(0, extLine.lastIndexOf("\""));
-                if (!fileName.contains(".")) {
-                    fileName = fileName + ".jsc";
-                }
-                if (!fileName.substring(0, fileName.lastIndexOf(".")).equalsIgnoreCase(parsed.getClassNameNoExtension())) {
-                    parsed.addMethodExtension(jscHandler.handle(fileName, false));
+                String fileName = getReferencedFile(line);
+                if (!isSelfReference(fileName, this.parsed.getClassName())) {
+                    this.parsed.addExtendedFile(fileName);
                 }
-                continue;
+                return;
             }
 
             if (isClassScopeIdentifier(line)) {
@@ -151,40 +262,10 @@ public class JSCParser {
                 if (line.startsWith("cvar")) {
                     line = line.substring(4);
                 }
-                parsed.addClassScope(line);
+                this.parsed.addClassScope(line);
             } else {
-                parsed.addMainScope(line);
+                this.parsed.addMainScope(line);
             }
         }
-
-        return parsed;
     }
-
-    private static boolean isClassScopeIdentifier(String s) {
-        for (String s0 : class_scope_identifiers) {
-            if (s.trim().startsWith(s0)) {
-                return true;
-            }
-        }
-
-        return s.trim().startsWith("@");
-    }
-
-
-    static final String[] class_scope_identifiers = {
-            "abstract"
-            , "class"
-            , "default"
-            , "enum"
-            , "native"
-            , "private"
-            , "protected"
-            , "public"
-            , "static"
-            , "transient"
-            , "void"
-            , "volatile"
-            , "svoid"
-            , "cvar"
-    };
 }
@@ -0,0 +1,269 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.App;
+import com.github.xnen.cache.Workspace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author xnen
+ * State of the real-time prompt. Every input goes through the JSC rules (macros, 'import', 'from ... import',
+ * class scope declarations) and is compiled in memory into a class extending the class of the previous input,
+ * so methods, fields and classes declared earlier stay in scope. Variables declared in the main scope of an
+ * input become static fields of its class, so later inputs see them too.
+ *
+ * An input that fails to compile leaves the session as it was. The compiler and the import index stay warm
+ * for the whole session.
+ */
+public class JSCSession implements Closeable {
+    /** A main scope variable declaration, i.e. 'List<String> names = new ArrayList<>();', with a single variable. */
+    private static final Pattern DECLARATION = Pattern.compile("^(?:final\\s+)?"
+            + "((?:[A-Za-z_$][\\w$]*\\s*\\.\\s*)*[A-Za-z_$][\\w$]*\\s*(?:<[^;=()]*>)?(?:\\s*\\[\\s*])*)"
+            + "\\s+([A-Za-z_$][\\w$]*)\\s*(?:=(.*))?;$", Pattern.DOTALL);
+    /** Another variable after the first, i.e. 'int a = 1, b = 2;', which stays a local variable. */
+    private static final Pattern MORE_DECLARATORS = Pattern.compile(",\\s*[A-Za-z_$][\\w$]*\\s*(?:=(?!=)|,|$)");
+    private static final Set<String> STATEMENT_KEYWORDS = new HashSet<>(Arrays.asList(
+            "assert", "break", "case", "continue", "do", "else", "new", "return", "throw", "var", "yield"));
+
+    private final ImportResolver importResolver;
+    private final JSCCompiler compiler = new JSCCompiler();
+    private final File classDir;
+
+    private final List<JavaImport> imports = new ArrayList<>();
+    private final List<String> staticImports = new ArrayList<>();
+    private final Map<String, String> macros = new HashMap<>(App.getInstance().getSettings().globalMacros);
+
+    private String previousClass;
+    private int inputs;
+
+    public JSCSession(ImportResolver importResolver) throws IOException {
+        this.importResolver = importResolver;
+        // Earlier inputs are on the classpath of every compile, since each input extends the one before.
+        this.classDir = Files.createTempDirectory("jscsession").toFile();
+    }
+
+    /**
+     * Loads the import index and runs the compiler once, so the first input doesn't pay for it.
+     */
+    public void warmUp() {
+        this.importResolver.resolve("java.lang.Object", null);
+        this.compiler.warmUp();
+    }
+
+    /**
+     * Compiles an input and adds its declarations to the session. An input that is a single expression
+     * without a ';' has its value printed.
+     * @throws JSCException if the input doesn't compile, with the errors as message
+     */
+    public Input compile(String input) {
+        List<String> lines = new ArrayList<>();
+        try {
+            JSCLexer.lex(new StringReader(input), unit -> {
+                if (!unit.trim().isEmpty()) {
+                    lines.add(unit.trim());
+                }
+            });
+        } catch (IOException e) {
+            // Not thrown by a StringReader.
+            throw new JSCException("Could not read input.", e);
+        }
+
+        String className = "Input" + (this.inputs + 1);
+        JSCClass parsed = JSCParser.parse(this.importResolver, className + ".jsc", lines);
+        if (!parsed.getUsedFiles().isEmpty() || !parsed.getExtendedFiles().isEmpty()) {
+            throw new JSCException("'using' and 'ext' are not supported in the prompt.");
+        }
+
+        List<String> mainScope = parsed.getMainScope();
+        Map<String, byte[]> classes;
+        if (isExpression(mainScope, parsed)) {
+            String expression = mainScope.get(0);
+            try {
+                classes = this.compile(className, parsed, Collections.singletonList("System.out.println(" + expression + ");"));
+            } catch (JSCException e) {
+                // Not a value after all, i.e. a call of a void method.
+                try {
+                    classes = this.compile(className, parsed, Collections.singletonList(expression + ";"));
+                } catch (JSCException ignored) {
+                    throw e;
+                }
+            }
+        } else {
+            classes = this.compile(className, parsed, mainScope);
+        }
+
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            File classFile = new File(this.classDir, entry.getKey().replace('.', File.separatorChar) + ".class");
+            try {
+                Files.write(classFile.toPath(), entry.getValue());
+            } catch (IOException e) {
+                throw new JSCException("Could not write class " + entry.getKey() + ".", e);
+            }
+        }
+
+        this.inputs++;
+        this.previousClass = className;
+        this.imports.addAll(parsed.getImports());
+        this.staticImports.addAll(parsed.getStaticImports());
+        this.macros.putAll(parsed.getMacros());
+        return new Input(className, classes, this.getLibraries(this.imports));
+    }
+
+    private Map<String, byte[]> compile(String className, JSCClass parsed, List<String> mainScope) {
+        List<JavaImport> imports = new ArrayList<>(this.imports);
+        imports.addAll(parsed.getImports());
+        Map<String, String> macros = new HashMap<>(this.macros);
+        macros.putAll(parsed.getMacros());
+        MacroEngine macroEngine = new MacroEngine(macros);
+
+        List<String> classpath = new ArrayList<>();
+        classpath.add(".");
+        classpath.addAll(this.getLibraries(imports));
+        classpath.add(this.classDir.getAbsolutePath());
+
+        try (ImportDisambiguator disambiguator = new ImportDisambiguator()) {
+            while (true) {
+                String source = this.generateSource(className, parsed, mainScope, imports, macroEngine);
+                JSCCompiler.Result result = this.compiler.compile(
+                        Collections.singletonList(new JSCCompiler.Source(null, className, source)), classpath);
+                if (result.isSuccess()) {
+                    return result.getClasses();
+                }
+
+                List<CompileError> errors = result.getErrors();
+                if (!disambiguator.disambiguate(imports, errors, source)) {
+                    StringBuilder message = new StringBuilder();
+                    for (CompileError error : errors) {
+                        if (message.length() > 0) {
+                            message.append(System.lineSeparator());
+                        }
+                        message.append("error: ").append(error.getMessage()).append(System.lineSeparator())
+                                .append("    ").append(error.getLine().trim());
+                    }
+                    throw new JSCException(message.toString());
+                }
+            }
+        }
+    }
+
+    private String generateSource(String className, JSCClass parsed, List<String> mainScope, List<JavaImport> imports, MacroEngine macroEngine) {
+        List<String> javaLines = new ArrayList<>();
+        for (JavaImport javaImport : imports) {
+            javaLines.add("import " + javaImport.getCurrentImport() + ";");
+        }
+        for (String staticImport : this.staticImports) {
+            javaLines.add("import static " + staticImport + ";");
+        }
+        for (String staticImport : parsed.getStaticImports()) {
+            javaLines.add("import static " + staticImport + ";");
+        }
+
+        javaLines.add("public class " + className + (this.previousClass != null ? " extends " + this.previousClass : "") + " {");
+        javaLines.addAll(parsed.getClassScope());
+
+        List<String> statements = new ArrayList<>();
+        for (String line : mainScope) {
+            Matcher declaration = DECLARATION.matcher(line);
+            String initializer = declaration.matches() ? declaration.group(3) : null;
+            if (!declaration.matches() || STATEMENT_KEYWORDS.contains(declaration.group(1))
+                    || (initializer != null && MORE_DECLARATORS.matcher(initializer).find())) {
+                statements.add(line);
+                continue;
+            }
+
+            String type = declaration.group(1);
+            String name = declaration.group(2);
+            javaLines.add("static " + type + " " + name + ";");
+            if (initializer != null) {
+                // Array initializers are only allowed in declarations.
+                String value = initializer.trim().startsWith("{") ? "new " + type + initializer : initializer;
+                statements.add(name + " =" + value + ";");
+            }
+        }
+
+        javaLines.add("public static void main(String[] args) throws Throwable {");
+        javaLines.addAll(statements);
+        javaLines.add("}");
+        javaLines.add("}");
+
+        StringBuilder source = new StringBuilder();
+        for (String line : javaLines) {
+            macroEngine.expand(line, source);
+            source.append('\n');
+        }
+        return source.toString();
+    }
+
+    private List<String> getLibraries(List<JavaImport> imports) {
+        List<String> libs = new ArrayList<>();
+        for (JavaImport javaImport : imports) {
+            if (javaImport.getCurrentLibrary() != null && !libs.contains(javaImport.getCurrentLibrary())) {
+                libs.add(javaImport.getCurrentLibrary());
+            }
+        }
+        return libs;
+    }
+
+    /**
+     * @return true if the input is a single main scope unit without a ';', i.e. 'names.size()'
+     */
+    private static boolean isExpression(List<String> mainScope, JSCClass parsed) {
+        if (mainScope.size() != 1 || !parsed.getClassScope().isEmpty()) {
+            return false;
+        }
+        String line = mainScope.get(0);
+        return !line.endsWith(";") && !line.endsWith("}");
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.compiler.close();
+        } catch (IOException ignored) {
+        }
+        Workspace.deleteTree(this.classDir);
+    }
+
+    /**
+     * A compiled input, ready to be loaded on top of the classes of the inputs before it.
+     */
+    public static class Input {
+        private final String className;
+        private final Map<String, byte[]> classes;
+        private final List<String> libraries;
+
+        Input(String className, Map<String, byte[]> classes, List<String> libraries) {
+            this.className = className;
+            this.classes = classes;
+            this.libraries = libraries;
+        }
+
+        /**
+         * @return the binary name of the class whose main method runs the input
+         */
+        public String getClassName() {
+            return this.className;
+        }
+
+        /**
+         * @return class bytes keyed by binary name
+         */
+        public Map<String, byte[]> getClasses() {
+            return this.classes;
+        }
+
+        /**
+         * @return the library jars of every import of the session so far
+         */
+        public List<String> getLibraries() {
+            return this.libraries;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.App;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * @author xnen
+ * Class name index of a single jar, persisted under the cache directory so jars are only walked once.
+ *
+ * Index file layout (big endian):
+ *   int magic, int version, long jarSize, long jarLastModified, int classCount,
+ *   classCount * (unsigned short length, UTF-8 bytes of the fully qualified class name)
+ *
+ * An index is rebuilt whenever the size or modification time of its jar changes.
+ */
+public class JarIndex implements ClassIndex {
+    private static final int MAGIC = 0x4A534349;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
+    private final String jarPath;
+    private final Map<String, List<String>> classesBySimpleName = new HashMap<>();
+    private final PackageTable packages;
+
+    private JarIndex(String jarPath, List<String> classNames) {
+        this.jarPath = jarPath;
+
+        Set<String> packages = new HashSet<>();
+        for (String className : classNames) {
+            int lastDot = className.lastIndexOf('.');
+            this.classesBySimpleName.computeIfAbsent(className.substring(lastDot + 1), k -> new ArrayList<>(1)).add(className);
+
+            // Register the package and all of its parents, so wildcard imports of a parent package resolve.
+            while (lastDot > 0) {
+                if (!packages.add(className.substring(0, lastDot))) {
+                    break;
+                }
+                lastDot = className.lastIndexOf('.', lastDot - 1);
+            }
+        }
+        this.packages = new PackageTable(packages);
+    }
+
+    /**
+     * Loads the index for a jar from the cache directory, (re)building it if it is missing or stale.
+     */
+    public static JarIndex load(String jarPath) {
+        File jar = new File(jarPath);
+        if (!jar.isFile()) {
+            return new JarIndex(jarPath, Collections.<String>emptyList());
+        }
+
+        File indexFile = getIndexFile(jar);
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+
+        if (indexFile.isFile()) {
+            try {
+                List<String> classNames = read(indexFile, size, lastModified);
+                if (classNames != null) {
+                    return new JarIndex(jarPath, classNames);
+                }
+            } catch (IOException e) {
+                System.out.println("[WARN] Could not read class index " + indexFile.getName() + ", rebuilding.");
+            }
+        }
+
+        List<String> classNames = scan(jar);
+        try {
+            write(indexFile, size, lastModified, classNames);
+        } catch (IOException e) {
+            System.out.println("[WARN] Could not write class index for " + jar.getName() + ".");
+        }
+        return new JarIndex(jarPath, classNames);
+    }
+
+    @Override
+    public String getPath() {
+        return this.jarPath;
+    }
+
+    @Override
+    public String getLibrary() {
+        return this.jarPath;
+    }
+
+    /**
+     * @param name simple or (partially) qualified class name, i.e. List, util.List or java.util.List
+     * @return fully qualified names of every class whose name ends with the given name
+     */
+    @Override
+    public List<String> findClasses(String name) {
+        List<String> candidates = this.classesBySimpleName.get(name.substring(name.lastIndexOf('.') + 1));
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> matches = new ArrayList<>(candidates.size());
+        for (String candidate : candidates) {
+            if (candidate.equals(name) || candidate.endsWith("." + name)) {
+                matches.add(candidate);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @param name simple or (partially) qualified package name, i.e. util or java.util
+     * @return fully qualified names of every package whose name ends with the given name
+     */
+    @Override
+    public List<String> findPackages(String name) {
+        return this.packages.find(name);
+    }
+
+    private static File getIndexFile(File jar) {
+        File indexDir = new File(App.getInstance().getSettings().getFormattedCacheDirectory(), "index");
+        String key = Integer.toHexString(jar.getAbsolutePath().hashCode());
+        return new File(indexDir, jar.getName() + "-" + key + ".idx");
+    }
+
+    private static List<String> scan(File jar) {
+        List<String> classNames = new ArrayList<>();
+
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                String entryName = entries.nextElement().getName();
+                if (!entryName.endsWith(".class") || entryName.startsWith("META-INF/")
+                        || entryName.endsWith("module-info.class") || entryName.endsWith("package-info.class")) {
+                    continue;
+                }
+
+                classNames.add(entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.'));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return classNames;
+    }
+
+    private static List<String> read(File indexFile, long size, long lastModified) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != size || buffer.getLong() != lastModified) {
+                return null;
+            }
+
+            int count = buffer.getInt();
+            List<String> classNames = new ArrayList<>(count);
+            byte[] nameBuffer = new byte[0xFFFF];
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getShort() & 0xFFFF;
+                buffer.get(nameBuffer, 0, length);
+                classNames.add(new String(nameBuffer, 0, length, StandardCharsets.UTF_8));
+            }
+            return classNames;
+        } catch (RuntimeException e) {
+            // Truncated or otherwise corrupt index
+            throw new IOException(e);
+        }
+    }
+
+    private static void write(File indexFile, long size, long lastModified, List<String> classNames) throws IOException {
+        File indexDir = indexFile.getParentFile();
+        if (!indexDir.exists() && !indexDir.mkdirs()) {
+            throw new IOException("Could not create index directory " + indexDir);
+        }
+
+        File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexDir);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeInt(classNames.size());
+            for (String className : classNames) {
+                byte[] bytes = className.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile.toPath());
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.xnen.decode;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author xnen
+ * Writes jars deterministically: the manifest first, then entries in name order with their directories
+ * before them, all with the same timestamp. The same manifest and entries always give the same bytes.
+ */
+public final class JarWriter {
+    /** Timestamp of every jar entry. */
+    private static final long ENTRY_TIME = new GregorianCalendar(2000, Calendar.JANUARY, 1).getTimeInMillis();
+
+    private JarWriter() {
+    }
+
+    /**
+     * @param entries entry names, i.e. com/example/Main.class, to their contents
+     * @param stored true to store entries uncompressed, which loads faster
+     */
+    public static void write(File jarFile, Manifest manifest, SortedMap<String, byte[]> entries, boolean stored) throws IOException {
+        try (JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile)))) {
+            // Written by hand rather than through the JarOutputStream constructor, which stamps it with the current time.
+            putDirectory(jar, "META-INF/");
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            manifest.write(manifestBytes);
+            putEntry(jar, JarFile.MANIFEST_NAME, manifestBytes.toByteArray(), stored);
+
+            Set<String> directories = new HashSet<>();
+            directories.add("META-INF/");
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                for (int slash = entry.getKey().indexOf('/'); slash >= 0; slash = entry.getKey().indexOf('/', slash + 1)) {
+                    String directory = entry.getKey().substring(0, slash + 1);
+                    if (directories.add(directory)) {
+                        putDirectory(jar, directory);
+                    }
+                }
+                putEntry(jar, entry.getKey(), entry.getValue(), stored);
+            }
+        }
+    }
+
+    /**
+     * Like write, but to a temp file next to the jar that then replaces it, so readers never see a partial jar.
+     */
+    public static void writeAtomically(File jarFile, Manifest manifest, SortedMap<String, byte[]> entries, boolean stored) throws IOException {
+        File dir = jarFile.getAbsoluteFile().getParentFile();
+        File tmpFile = File.createTempFile(jarFile.getName(), ".tmp", dir);
+        try {
+            write(tmpFile, manifest, entries, stored);
+            Files.move(tmpFile.toPath(), jarFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    private static void putDirectory(JarOutputStream jar, String name) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(ENTRY_TIME);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(0);
+        entry.setCompressedSize(0);
+        entry.setCrc(0);
+        jar.putNextEntry(entry);
+        jar.closeEntry();
+    }
+
+    private static void putEntry(JarOutputStream jar, String name, byte[] bytes, boolean stored) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(ENTRY_TIME);
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(bytes.length);
+            entry.setCompressedSize(bytes.length);
+            entry.setCrc(crc.getValue());
+        }
+        jar.putNextEntry(entry);
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+}
@@ -1,117 +1,39 @@
 package com.github.xnen.decode;
 
-import com.github.xnen.App;
-
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 public class JavaImport {
     private final String className;
     private String library;
 
-    private final List<String> possibleMatches = new ArrayList<>();
-    private final List<String> possibleLibraries = new ArrayList<>();
+    private final ImportResolver.Resolution resolution;
     private int index;
 
 
-    public JavaImport(String className) {
+    public JavaImport(String className, ImportResolver resolver) {
         this.className = className;
-        this.lookup();
+        this.resolution = resolver.resolve(this.className, null);
     }
 
-    public JavaImport(String className, String library) {
+    public JavaImport(String className, String library, ImportResolver resolver) {
         this.className = className;
         this.library = library;
-        this.lookup();
+        this.resolution = resolver.resolve(this.className, this.library);
     }
 
-    /**
-     * Search along rt.jar and libs in the library directory in Settings
-     * for the class name.
-     */
-    private void lookup() {
-        if (!new File(App.getInstance().getSettings().JDK_LOCATION).isDirectory()) {
-            throw new RuntimeException("JDK Location MUST BE SET in --settings!");
-        }
-
-        String rtJar = App.getInstance().getSettings().JDK_LOCATION + File.separator + "jre" + File.separator + "lib" + File.separator + "rt.jar";
-
-        if (this.library != null) {
-            if (rtJar.contains(this.library)) {
-                findMatches(rtJar);
-            }
-            for (String s : App.getInstance().getSettings().getLibraries()) {
-                if (s.contains(this.library)) {
-                    findMatches(App.getInstance().getSettings().getFormattedLibDirectory() + File.separator + s);
-                }
-            }
-        } else {
-            findMatches(rtJar);
-
-            for (String s : App.getInstance().getSettings().getLibraries()) {
-                findMatches(App.getInstance().getSettings().getFormattedLibDirectory() + File.separator + s);
-            }
-
-            if (this.possibleLibraries.size() == 0) {
-                System.out.println("No matches found for " + this.className);
-            }
-        }
+    public List<String> getPossibleImports() {
+        return this.resolution.getPossibleMatches();
     }
 
-    private void findMatches(String zipFile) {
-        try {
-            ZipFile testZip = new ZipFile(zipFile);
-            Enumeration<? extends ZipEntry> entries = testZip.entries();
-
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String entryName = entry.getName();
-
-                String name = this.className.replace(".", File.separator);
-                boolean wc = false;
-
-                if (name.endsWith("*")) {
-                    name = name.substring(0, name.length() - 1);
-                    wc = true;
-                }
-
-                if (!name.startsWith(File.separator)) {
-                    name = File.separator + name;
-                }
-
-
-                if (wc) {
-                    if (entryName.contains(name)) {
-                        String formatted = entryName.substring(0, entryName.indexOf(name) + name.length()).replace(File.separator, ".") + "*";
-
-                        if (!this.possibleMatches.contains(formatted)) {
-                            this.possibleMatches.add(formatted);
-                            this.possibleLibraries.add(zipFile);
-                        }
-                    }
-                } else {
-                    if (entryName.endsWith(name + ".class")) {
-                        entryName = entryName.replace(File.separator, ".");
-                        entryName = entryName.substring(0, entryName.length() - 6);
-                        if (!this.possibleMatches.contains(entryName)) {
-                            this.possibleMatches.add(entryName);
-                            this.possibleLibraries.add(zipFile);
-                        }
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public List<String> getPossibleLibraries() {
+        return this.resolution.getPossibleLibraries();
     }
 
-    public List<String> getPossibleImports() {
-        return this.possibleMatches;
+    /**
+     * @return the library the import was restricted to with 'from', or null
+     */
+    public String getLibrary() {
+        return this.library;
     }
 
     public String getRaw() {
@@ -119,28 +41,42 @@ public class JavaImport {
     }
 
     public String getCurrentImport() {
-        if (this.possibleMatches.size() == 0)
+        if (this.getPossibleImports().size() == 0)
             return getRaw();
 
-        return this.possibleMatches.get(this.index);
+        return this.getPossibleImports().get(this.index);
     }
 
     public boolean increment() {
         this.index++;
 
-        if (this.index >= this.possibleMatches.size()) {
-            this.index = this.possibleMatches.size() - 1;
+        if (this.index >= this.getPossibleImports().size()) {
+            this.index = this.getPossibleImports().size() - 1;
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves to the given candidate.
+     * @return false if it isn't one of the possible imports
+     */
+    public boolean select(String candidate) {
+        int i = this.getPossibleImports().indexOf(candidate);
+        if (i < 0) {
             return false;
         }
 
+        this.index = i;
         return true;
     }
 
     public String getCurrentLibrary() {
-        if (this.possibleLibraries.size() == 0) {
+        if (this.resolution.getPossibleLibraries().size() == 0) {
             return null;
         }
 
-        return this.possibleLibraries.get(this.index);
+        return this.resolution.getPossibleLibraries().get(this.index);
     }
 }
@@ -0,0 +1,411 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.App;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author xnen
+ * Class index of the module image of a Java 9+ JDK, read through the jrt:/ file system. Only packages that
+ * their module exports to everyone are indexed, which are the ones code on the classpath can use.
+ *
+ * Nothing is walked up front. The exported packages come from the module descriptors, and a lookup only
+ * probes the packages its name can be in: every exported package for List, the packages ending with util
+ * for util.List. Lookups are appended to the index file, so each name is looked up in the image once per JDK.
+ *
+ * Index file layout (big endian):
+ *   int magic, int version, long imageSize, long imageLastModified,
+ *   int packageCount, packageCount * (UTF package, UTF module),
+ *   then up to the end of the file, per lookup: UTF name, unsigned short matchCount, matchCount * UTF class name
+ *
+ * The index is rebuilt whenever the size or modification time of lib/modules changes.
+ */
+public class JrtIndex implements ClassIndex {
+    private static final int MAGIC = 0x4A53434A;
+    private static final int VERSION = 1;
+
+    /** Open images by JDK home, as each holds the image file mapped. */
+    private static final Map<String, FileSystem> IMAGES = new ConcurrentHashMap<>();
+
+    private final File image;
+    private final File indexFile;
+    /** Exported package to its module, sorted by package. */
+    private final Map<String, String> packages;
+    private final PackageTable packageTable;
+    private final Map<String, List<String>> lookups = new ConcurrentHashMap<>();
+
+    private JrtIndex(File image, File indexFile, Map<String, String> packages) {
+        this.image = image;
+        this.indexFile = indexFile;
+        this.packages = packages;
+        this.packageTable = new PackageTable(packages.keySet());
+    }
+
+    /**
+     * @return true for the lib/modules image of a Java 9+ JDK
+     */
+    public static boolean isImage(String path) {
+        return path.endsWith(File.separator + "modules");
+    }
+
+    /**
+     * Loads the index for a JDK's lib/modules from the cache directory, building its package list if it is
+     * missing or stale.
+     */
+    public static JrtIndex load(String imagePath) {
+        File image = new File(imagePath).getAbsoluteFile();
+        File indexFile = getIndexFile(image);
+        long size = image.length();
+        long lastModified = image.lastModified();
+
+        if (indexFile.isFile()) {
+            try {
+                JrtIndex index = read(image, indexFile, size, lastModified);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                System.out.println("[WARN] Could not read class index " + indexFile.getName() + ", rebuilding.");
+            }
+        }
+
+        Map<String, String> packages;
+        try {
+            packages = readPackages(openImage(image));
+        } catch (IOException e) {
+            System.out.println("[WARN] Could not read the module image " + image + ".");
+            return new JrtIndex(image, indexFile, Collections.<String, String>emptyMap());
+        }
+
+        JrtIndex index = new JrtIndex(image, indexFile, packages);
+        try {
+            index.write(size, lastModified);
+        } catch (IOException e) {
+            System.out.println("[WARN] Could not write class index for " + image + ".");
+        }
+        return index;
+    }
+
+    @Override
+    public String getPath() {
+        return this.image.getPath();
+    }
+
+    /**
+     * JDK classes are on every classpath already.
+     */
+    @Override
+    public String getLibrary() {
+        return null;
+    }
+
+    @Override
+    public List<String> findClasses(String name) {
+        List<String> matches = this.lookups.get(name);
+        if (matches != null) {
+            return matches;
+        }
+
+        try {
+            matches = Collections.unmodifiableList(this.probe(name));
+        } catch (IOException e) {
+            System.out.println("[WARN] Could not look up " + name + " in the module image " + this.image + ".");
+            return Collections.emptyList();
+        }
+
+        if (this.lookups.putIfAbsent(name, matches) == null) {
+            try {
+                this.append(name, matches);
+            } catch (IOException e) {
+                System.out.println("[WARN] Could not update class index " + this.indexFile.getName() + ".");
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public List<String> findPackages(String name) {
+        return this.packageTable.find(name);
+    }
+
+    /**
+     * Checks for the class file in every exported package the name's qualifier, if any, fits.
+     */
+    private List<String> probe(String name) throws IOException {
+        int lastDot = name.lastIndexOf('.');
+        String simpleName = name.substring(lastDot + 1);
+        Collection<String> candidates = lastDot < 0 ? this.packages.keySet() : this.packageTable.find(name.substring(0, lastDot));
+
+        FileSystem fileSystem = openImage(this.image);
+        List<String> matches = new ArrayList<>(1);
+        for (String packageName : candidates) {
+            Path classFile = fileSystem.getPath("/modules", this.packages.get(packageName), packageName.replace('.', '/'), simpleName + ".class");
+            if (Files.isRegularFile(classFile)) {
+                matches.add(packageName + "." + simpleName);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * The running JDK's image is always open. Any other is opened through its own lib/jrt-fs.jar, which has
+     * to be loaded by hand on Java 8.
+     */
+    private static FileSystem openImage(File image) throws IOException {
+        File jdkHome = image.getParentFile().getParentFile();
+        String key = jdkHome.getCanonicalPath();
+        FileSystem fileSystem = IMAGES.get(key);
+        if (fileSystem != null) {
+            return fileSystem;
+        }
+
+        synchronized (IMAGES) {
+            fileSystem = IMAGES.get(key);
+            if (fileSystem == null) {
+                URI uri = URI.create("jrt:/");
+                if (System.getProperty("java.specification.version").startsWith("1.")) {
+                    URL jrtFs = new File(jdkHome, "lib" + File.separator + "jrt-fs.jar").toURI().toURL();
+                    fileSystem = FileSystems.newFileSystem(uri, Collections.<String, Object>emptyMap(), new URLClassLoader(new URL[]{jrtFs}));
+                } else if (key.equals(new File(System.getProperty("java.home")).getCanonicalPath())) {
+                    fileSystem = FileSystems.getFileSystem(uri);
+                } else {
+                    fileSystem = FileSystems.newFileSystem(uri, Collections.singletonMap("java.home", jdkHome.getPath()));
+                }
+                IMAGES.put(key, fileSystem);
+            }
+            return fileSystem;
+        }
+    }
+
+    private static Map<String, String> readPackages(FileSystem fileSystem) throws IOException {
+        Map<String, String> packages = new TreeMap<>();
+        try (DirectoryStream<Path> modules = Files.newDirectoryStream(fileSystem.getPath("/modules"))) {
+            for (Path module : modules) {
+                Path descriptor = module.resolve("module-info.class");
+                if (!Files.isRegularFile(descriptor)) {
+                    continue;
+                }
+
+                for (String pkg : readExports(Files.readAllBytes(descriptor))) {
+                    packages.put(pkg, module.getFileName().toString());
+                }
+            }
+        }
+        return packages;
+    }
+
+    /**
+     * Reads the Module attribute of a module-info.class directly, as java.lang.module is not there on Java 8.
+     * @return the packages the module exports without a 'to' clause
+     */
+    static List<String> readExports(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] nameIndexes = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    nameIndexes[i] = in.readUnsignedShort();
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        // Access flags, this class, super class, then interfaces, fields and methods.
+        in.skipBytes(6);
+        in.skipBytes(in.readUnsignedShort() * 2);
+        for (int members = 0; members < 2; members++) {
+            int memberCount = in.readUnsignedShort();
+            for (int i = 0; i < memberCount; i++) {
+                in.skipBytes(6);
+                skipAttributes(in);
+            }
+        }
+
+        List<String> exports = new ArrayList<>();
+        int attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String name = utf8[in.readUnsignedShort()];
+            int length = in.readInt();
+            if (!"Module".equals(name)) {
+                in.skipBytes(length);
+                continue;
+            }
+
+            // Name, flags, version, then requires as (module, flags, version).
+            in.skipBytes(6);
+            in.skipBytes(in.readUnsignedShort() * 6);
+
+            int exportCount = in.readUnsignedShort();
+            for (int e = 0; e < exportCount; e++) {
+                int packageIndex = in.readUnsignedShort();
+                in.readUnsignedShort();
+                int toCount = in.readUnsignedShort();
+                in.skipBytes(toCount * 2);
+                if (toCount == 0) {
+                    exports.add(utf8[nameIndexes[packageIndex]].replace('/', '.'));
+                }
+            }
+            break;
+        }
+        return exports;
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            in.skipBytes(2);
+            in.skipBytes(in.readInt());
+        }
+    }
+
+    private static File getIndexFile(File image) {
+        File indexDir = new File(App.getInstance().getSettings().getFormattedCacheDirectory(), "index");
+        String key = Integer.toHexString(image.getAbsolutePath().hashCode());
+        return new File(indexDir, "modules-" + key + ".idx");
+    }
+
+    /**
+     * @return the index, or null if it is stale
+     */
+    private static JrtIndex read(File image, File indexFile, long size, long lastModified) throws IOException {
+        JrtIndex index;
+        boolean complete = true;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != size || in.readLong() != lastModified) {
+                return null;
+            }
+
+            int packageCount = in.readInt();
+            Map<String, String> packages = new TreeMap<>();
+            for (int i = 0; i < packageCount; i++) {
+                packages.put(in.readUTF(), in.readUTF());
+            }
+            index = new JrtIndex(image, indexFile, packages);
+
+            while (true) {
+                in.mark(1);
+                if (in.read() == -1) {
+                    break;
+                }
+                in.reset();
+
+                try {
+                    String name = in.readUTF();
+                    List<String> matches = new ArrayList<>();
+                    int matchCount = in.readUnsignedShort();
+                    for (int i = 0; i < matchCount; i++) {
+                        matches.add(in.readUTF());
+                    }
+                    index.lookups.put(name, Collections.unmodifiableList(matches));
+                } catch (EOFException e) {
+                    complete = false;
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // Truncated header
+            return null;
+        }
+
+        // A launch died while appending, rewrite what is left so later appends are readable.
+        if (!complete) {
+            index.write(size, lastModified);
+        }
+        return index;
+    }
+
+    private void write(long size, long lastModified) throws IOException {
+        File indexDir = this.indexFile.getParentFile();
+        if (!indexDir.exists() && !indexDir.mkdirs()) {
+            throw new IOException("Could not create index directory " + indexDir);
+        }
+
+        File tmpFile = File.createTempFile(this.indexFile.getName(), ".tmp", indexDir);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeInt(this.packages.size());
+            for (Map.Entry<String, String> pkg : this.packages.entrySet()) {
+                out.writeUTF(pkg.getKey());
+                out.writeUTF(pkg.getValue());
+            }
+            for (Map.Entry<String, List<String>> lookup : this.lookups.entrySet()) {
+                writeLookup(out, lookup.getKey(), lookup.getValue());
+            }
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Appends one lookup in a single write, so concurrent launches appending to the same index don't interleave.
+     */
+    private void append(String name, List<String> matches) throws IOException {
+        if (!this.indexFile.isFile()) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeLookup(new DataOutputStream(bytes), name, matches);
+        try (FileOutputStream out = new FileOutputStream(this.indexFile, true)) {
+            out.write(bytes.toByteArray());
+        }
+    }
+
+    private static void writeLookup(DataOutputStream out, String name, List<String> matches) throws IOException {
+        out.writeUTF(name);
+        out.writeShort(matches.size());
+        for (String match : matches) {
+            out.writeUTF(match);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.xnen.decode;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * @author xnen
+ * The lines of a scope, in order. Lines are kept in memory until they add up to SPILL_CHARS, then moved to a
+ * temp file that later lines are appended to, so a generated script of tens of MB doesn't need a heap to match.
+ * Reading spilled lines streams them back one at a time. Not thread-safe.
+ */
+class LineBuffer {
+    /** Characters held in memory before spilling, about 2 MB. */
+    private static final long SPILL_CHARS = 1 << 20;
+
+    private final List<String> lines = new ArrayList<>();
+    private long chars;
+    private int size;
+
+    private File spillFile;
+    private DataOutputStream spill;
+
+    void add(String line) {
+        this.size++;
+        try {
+            if (this.spill != null) {
+                write(this.spill, line);
+                return;
+            }
+
+            this.lines.add(line);
+            this.chars += line.length();
+            if (this.chars > SPILL_CHARS) {
+                this.spillLines();
+            }
+        } catch (IOException e) {
+            throw new JSCException("Could not write a scope of " + this.size + " lines to disk.", e);
+        }
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Hands every line to the consumer in order, reading spilled lines back from disk.
+     */
+    void forEach(Consumer<String> consumer) {
+        if (this.spill == null) {
+            this.lines.forEach(consumer);
+            return;
+        }
+
+        try {
+            this.spill.flush();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.spillFile)))) {
+                for (int i = 0; i < this.size; i++) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    consumer.accept(new String(bytes, StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            throw new JSCException("Could not read a scope back from " + this.spillFile + ".", e);
+        }
+    }
+
+    /**
+     * @return every line in memory, for small scopes such as prompt input
+     */
+    List<String> toList() {
+        if (this.spill == null) {
+            return Collections.unmodifiableList(this.lines);
+        }
+
+        List<String> all = new ArrayList<>(this.size);
+        this.forEach(all::add);
+        return all;
+    }
+
+    /**
+     * Deletes the spill file, if any. The buffer is empty afterwards.
+     */
+    void release() {
+        this.lines.clear();
+        this.chars = 0;
+        this.size = 0;
+        if (this.spill != null) {
+            try {
+                this.spill.close();
+            } catch (IOException ignored) {
+            }
+            if (!this.spillFile.delete()) {
+                this.spillFile.deleteOnExit();
+            }
+            this.spill = null;
+            this.spillFile = null;
+        }
+    }
+
+    private void spillLines() throws IOException {
+        this.spillFile = File.createTempFile("jscscope", ".tmp");
+        this.spillFile.deleteOnExit();
+        this.spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.spillFile)));
+        for (String line : this.lines) {
+            write(this.spill, line);
+        }
+        this.lines.clear();
+    }
+
+    private static void write(DataOutputStream out, String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.xnen.decode;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * @author xnen
+ * Expands every macro of a class in a single pass per line. All keys are compiled into one Aho-Corasick
+ * automaton, so the cost of a line depends on its length rather than on the number of macros.
+ *
+ * Matches are leftmost-longest and never overlap, and replacements aren't expanded again. String, char and
+ * text block literals are copied as they are, so macros never apply inside them.
+ */
+public class MacroEngine {
+    private final Node root = new Node(0);
+    private final boolean empty;
+
+    public MacroEngine(Map<String, String> macros) {
+        for (Map.Entry<String, String> macro : macros.entrySet()) {
+            String key = macro.getKey().replace("\\\"", "\"").replace("\\\\", "\\");
+            if (key.isEmpty()) {
+                continue;
+            }
+
+            Node node = this.root;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.childOrCreate(key.charAt(i));
+            }
+            node.value = macro.getValue();
+        }
+
+        this.empty = this.root.children.isEmpty();
+        this.linkFailures();
+    }
+
+    /**
+     * Breadth first, so every node's failure (the longest proper suffix that is also a key prefix) is known
+     * before its children's.
+     */
+    private void linkFailures() {
+        Queue<Node> queue = new ArrayDeque<>();
+        for (Node child : this.root.children.values()) {
+            child.failure = this.root;
+            child.output = child.value != null ? child : null;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+                Node child = entry.getValue();
+                child.failure = this.step(node.failure, entry.getKey());
+                child.output = child.value != null ? child : child.failure.output;
+                queue.add(child);
+            }
+        }
+    }
+
+    public String expand(String line) {
+        if (this.empty) {
+            return line;
+        }
+
+        StringBuilder out = new StringBuilder(line.length() + 16);
+        this.expand(line, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the line with all macros expanded to out.
+     */
+    public void expand(CharSequence line, StringBuilder out) {
+        if (this.empty) {
+            out.append(line);
+            return;
+        }
+
+        int length = line.length();
+        int copied = 0;
+        Node state = this.root;
+
+        // Leftmost-longest match found so far, which is kept until no longer match can start at or before it.
+        Node best = null;
+        int bestStart = 0;
+        int bestEnd = 0;
+
+        int i = 0;
+        while (true) {
+            boolean end = i == length;
+            char c = end ? 0 : line.charAt(i);
+            boolean literal = c == '"' || c == '\'';
+            Node next = end || literal ? this.root : this.step(state, c);
+
+            // Any later match starts within the prefix 'next' tracks, so a pending match before that is final.
+            if (best != null && i + 1 - next.depth > bestStart) {
+                out.append(line, copied, bestStart).append(best.value);
+                copied = i = bestEnd;
+                state = this.root;
+                best = null;
+                continue;
+            }
+            if (end) {
+                break;
+            }
+
+            if (literal) {
+                i = skipLiteral(line, i);
+                state = this.root;
+                continue;
+            }
+
+            state = next;
+            i++;
+            if (state.output != null) {
+                int start = i - state.output.depth;
+                if (best == null || start < bestStart || (start == bestStart && i > bestEnd)) {
+                    best = state.output;
+                    bestStart = start;
+                    bestEnd = i;
+                }
+            }
+        }
+
+        out.append(line, copied, length);
+    }
+
+    /**
+     * Goto function of the automaton.
+     */
+    private Node step(Node state, char c) {
+        for (Node node = state; node != null; node = node.failure) {
+            Node next = node.children.get(c);
+            if (next != null) {
+                return next;
+            }
+        }
+        return this.root;
+    }
+
+    /**
+     * @return the index after the string, char or text block literal starting at start, or the line's
+     * length if it isn't closed on this line
+     */
+    private static int skipLiteral(CharSequence line, int start) {
+        int length = line.length();
+        char quote = line.charAt(start);
+
+        boolean textBlock = quote == '"' && start + 2 < length && line.charAt(start + 1) == '"' && line.charAt(start + 2) == '"';
+        int i = start + (textBlock ? 3 : 1);
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote && (!textBlock || (i + 2 < length && line.charAt(i + 1) == '"' && line.charAt(i + 2) == '"'))) {
+                return i + (textBlock ? 3 : 1);
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final int depth;
+        private Node failure;
+
+        /** The longest key ending at this node, itself if it is a key. */
+        private Node output;
+        private String value;
+
+        Node(int depth) {
+            this.depth = depth;
+        }
+
+        Node childOrCreate(char c) {
+            return this.children.computeIfAbsent(c, k -> new Node(this.depth + 1));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.xnen.decode;
+
+import java.util.*;
+
+/**
+ * @author xnen
+ * Package names keyed by their last segment, i.e. java.util and com.google.common.util under util. Imports
+ * name a package by a suffix of its segments, so a lookup only compares the packages sharing the suffix's last
+ * segment, instead of every package of a jar.
+ */
+class PackageTable {
+    private final Map<String, List<String>> packagesBySegment = new HashMap<>();
+
+    /**
+     * @param packages package names, without duplicates
+     */
+    PackageTable(Collection<String> packages) {
+        for (String pkg : packages) {
+            this.packagesBySegment.computeIfAbsent(pkg.substring(pkg.lastIndexOf('.') + 1), k -> new ArrayList<>(1)).add(pkg);
+        }
+        for (List<String> sameSegment : this.packagesBySegment.values()) {
+            Collections.sort(sameSegment);
+        }
+    }
+
+    /**
+     * @param name simple or (partially) qualified package name, i.e. util or java.util
+     * @return every package whose name ends with the given name, sorted
+     */
+    List<String> find(String name) {
+        List<String> candidates = this.packagesBySegment.get(name.substring(name.lastIndexOf('.') + 1));
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> matches = new ArrayList<>(candidates.size());
+        for (String candidate : candidates) {
+            if (candidate.equals(name) || candidate.endsWith("." + name)) {
+                matches.add(candidate);
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.xnen.profile;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author xnen
+ * Emits profiler phases as JFR events. The event type is defined at runtime through jdk.jfr.EventFactory,
+ * so the launcher compiles for and runs on Java 8, where every call is a no-op.
+ *
+ * The event type is only defined when JFR is already up, i.e. with -XX:StartFlightRecording, since defining
+ * it costs more than all phases of a small script.
+ */
+final class JfrEvents {
+    private final Object factory;
+    private final Method newEvent;
+    private final Method begin;
+    private final Method end;
+    private final Method set;
+    private final Method commit;
+
+    private JfrEvents(Object factory, Method newEvent, Method begin, Method end, Method set, Method commit) {
+        this.factory = factory;
+        this.newEvent = newEvent;
+        this.begin = begin;
+        this.end = end;
+        this.set = set;
+        this.commit = commit;
+    }
+
+    static JfrEvents create() {
+        try {
+            if (!(Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized").invoke(null)) {
+                return new JfrEvents(null, null, null, null, null, null);
+            }
+
+            Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+
+            Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+            List<Object> annotations = Arrays.asList(
+                    annotation.newInstance(annotationType("jdk.jfr.Name"), "com.github.xnen.Phase"),
+                    annotation.newInstance(annotationType("jdk.jfr.Label"), "JSC Phase"),
+                    annotation.newInstance(annotationType("jdk.jfr.Category"), new String[]{"JSC"}));
+
+            // Field order is the index used by set().
+            Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+            List<Object> fields = Arrays.asList(
+                    field.newInstance(String.class, "phase", Collections.emptyList()),
+                    field.newInstance(String.class, "detail", Collections.emptyList()),
+                    field.newInstance(long.class, "cpuTime", Collections.singletonList(
+                            annotation.newInstance(annotationType("jdk.jfr.Timespan"), "NANOSECONDS"))),
+                    field.newInstance(long.class, "allocated", Collections.singletonList(
+                            annotation.newInstance(annotationType("jdk.jfr.DataAmount"), "BYTES"))));
+
+            Object factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+            return new JfrEvents(factory, eventFactory.getMethod("newEvent"), event.getMethod("begin"), event.getMethod("end"),
+                    event.getMethod("set", int.class, Object.class), event.getMethod("commit"));
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return new JfrEvents(null, null, null, null, null, null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Annotation> annotationType(String name) throws ClassNotFoundException {
+        return (Class<? extends Annotation>) Class.forName(name);
+    }
+
+    /**
+     * @return the started event, or null without JFR
+     */
+    Object begin() {
+        if (this.factory == null) {
+            return null;
+        }
+
+        try {
+            Object event = this.newEvent.invoke(this.factory);
+            this.begin.invoke(event);
+            return event;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    void commit(Object event, Profiler.Record record) {
+        if (event == null) {
+            return;
+        }
+
+        try {
+            this.end.invoke(event);
+            this.set.invoke(event, 0, record.name);
+            this.set.invoke(event, 1, record.detail);
+            this.set.invoke(event, 2, record.cpu);
+            this.set.invoke(event, 3, record.allocated);
+            this.commit.invoke(event);
+        } catch (ReflectiveOperationException ignored) {
+        }
+    }
+}
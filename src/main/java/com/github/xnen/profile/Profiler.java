@@ -0,0 +1,283 @@
+package com.github.xnen.profile;
+
+import com.github.xnen.App;
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author xnen
+ * Phase timings for --profile. Code wraps a phase in try (Profiler.Phase p = Profiler.phase("name")), which
+ * records wall time, CPU time and allocated bytes of the calling thread. Phases running on several threads at
+ * once, i.e. parsing, are recorded per thread, so their sums can exceed the total.
+ *
+ * Every phase is also emitted as a 'com.github.xnen.Phase' JFR event when the launcher runs with
+ * -XX:StartFlightRecording. On exit, a summary is printed and the run is appended to
+ * CACHE_DIRECTORY/profile/history.jsonl, along with a Chrome trace if PROFILE_TRACE is set.
+ *
+ * While profiling is off, phase() returns a shared no-op phase.
+ */
+public final class Profiler {
+    private static final Phase NO_PHASE = () -> { };
+    private static final int SLOWEST_IMPORTS = 10;
+
+    private static volatile Profiler active;
+
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTime = this.threads.isCurrentThreadCpuTimeSupported();
+    private final Queue<Record> records = new ConcurrentLinkedQueue<>();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final JfrEvents jfr = JfrEvents.create();
+    private volatile String description = "";
+
+    private Profiler() {
+    }
+
+    /**
+     * Starts profiling, until the launcher exits.
+     */
+    public static synchronized void enable() {
+        if (active != null) {
+            return;
+        }
+
+        Profiler profiler = new Profiler();
+        active = profiler;
+        Runtime.getRuntime().addShutdownHook(new Thread(profiler::report, "jsc-profile"));
+    }
+
+    public static boolean isEnabled() {
+        return active != null;
+    }
+
+    /**
+     * Names the run in the history, i.e. with the script and its arguments.
+     */
+    public static void describe(String description) {
+        Profiler profiler = active;
+        if (profiler != null) {
+            profiler.description = description;
+        }
+    }
+
+    public static Phase phase(String name) {
+        return phase(name, null);
+    }
+
+    /**
+     * @param detail what the phase worked on, i.e. the file or import, or null
+     */
+    public static Phase phase(String name, String detail) {
+        Profiler profiler = active;
+        return profiler == null ? NO_PHASE : profiler.start(name, detail);
+    }
+
+    /**
+     * Adds one to a named counter, i.e. compile rounds.
+     */
+    public static void count(String counter) {
+        Profiler profiler = active;
+        if (profiler != null) {
+            profiler.counters.computeIfAbsent(counter, k -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    private Phase start(String name, String detail) {
+        Thread thread = Thread.currentThread();
+        Object event = this.jfr.begin();
+        long cpu = this.getCpuTime();
+        long allocated = this.getAllocatedBytes(thread);
+        long start = System.nanoTime();
+
+        return () -> {
+            long wall = System.nanoTime() - start;
+            Record record = new Record(name, detail, thread.getId(), start - this.startNanos, wall,
+                    this.getCpuTime() - cpu, this.getAllocatedBytes(thread) - allocated);
+            this.records.add(record);
+            this.jfr.commit(event, record);
+        };
+    }
+
+    private long getCpuTime() {
+        return this.cpuTime ? this.threads.getCurrentThreadCpuTime() : 0L;
+    }
+
+    private long getAllocatedBytes(Thread thread) {
+        if (this.threads instanceof com.sun.management.ThreadMXBean) {
+            long allocated = ((com.sun.management.ThreadMXBean) this.threads).getThreadAllocatedBytes(thread.getId());
+            return Math.max(allocated, 0L);
+        }
+        return 0L;
+    }
+
+    private void report() {
+        long total = System.nanoTime() - this.startNanos;
+        Map<String, Summary> summaries = new LinkedHashMap<>();
+        List<Record> sorted = new ArrayList<>(this.records);
+        sorted.sort(Comparator.comparingLong(r -> r.start));
+        for (Record record : sorted) {
+            summaries.computeIfAbsent(record.name, k -> new Summary()).add(record);
+        }
+
+        System.out.println();
+        System.out.println(String.format("[PROFILE] %-14s %7s %10s %10s %10s", "phase", "count", "wall ms", "cpu ms", "alloc MB"));
+        for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+            Summary summary = entry.getValue();
+            System.out.println(String.format("[PROFILE] %-14s %7d %10.1f %10.1f %10.1f", entry.getKey(), summary.count,
+                    summary.wallNanos / 1e6, summary.cpuNanos / 1e6, summary.allocatedBytes / (1024.0 * 1024.0)));
+        }
+        System.out.println(String.format("[PROFILE] %-14s %7s %10.1f", "total", "", total / 1e6));
+        for (Map.Entry<String, AtomicLong> counter : new TreeMap<>(this.counters).entrySet()) {
+            System.out.println("[PROFILE] " + counter.getKey() + ": " + counter.getValue().get());
+        }
+
+        List<Record> imports = new ArrayList<>();
+        for (Record record : sorted) {
+            if (record.name.equals("import")) {
+                imports.add(record);
+            }
+        }
+        if (!imports.isEmpty()) {
+            imports.sort((a, b) -> Long.compare(b.wall, a.wall));
+            StringBuilder slowest = new StringBuilder("[PROFILE] slowest imports:");
+            for (Record record : imports.subList(0, Math.min(SLOWEST_IMPORTS, imports.size()))) {
+                slowest.append(' ').append(record.detail).append(String.format(" %.1f ms,", record.wall / 1e6));
+            }
+            System.out.println(slowest.substring(0, slowest.length() - 1));
+        }
+
+        File profileDir = new File(App.getInstance().getSettings().getFormattedCacheDirectory(), "profile");
+        if (!profileDir.isDirectory() && !profileDir.mkdirs()) {
+            System.out.println("[WARN] Could not create " + profileDir + ".");
+            return;
+        }
+
+        this.appendHistory(new File(profileDir, "history.jsonl"), total, summaries);
+        if (App.getInstance().getSettings().PROFILE_TRACE) {
+            String name = "trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(this.startMillis)) + ".json";
+            File traceFile = new File(profileDir, name);
+            this.writeTrace(traceFile, sorted);
+            System.out.println("[PROFILE] Chrome trace written to " + traceFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * One JSON object per line, so runs can be compared over time.
+     */
+    private void appendHistory(File historyFile, long total, Map<String, Summary> summaries) {
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("time", this.startMillis);
+        run.put("run", this.description);
+        run.put("javaVersion", System.getProperty("java.version"));
+        run.put("totalMillis", total / 1e6);
+
+        Map<String, Object> phases = new LinkedHashMap<>();
+        for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+            Map<String, Object> phase = new LinkedHashMap<>();
+            phase.put("count", entry.getValue().count);
+            phase.put("wallMillis", entry.getValue().wallNanos / 1e6);
+            phase.put("cpuMillis", entry.getValue().cpuNanos / 1e6);
+            phase.put("allocatedBytes", entry.getValue().allocatedBytes);
+            phases.put(entry.getKey(), phase);
+        }
+        run.put("phases", phases);
+
+        Map<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> counter : this.counters.entrySet()) {
+            counters.put(counter.getKey(), counter.getValue().get());
+        }
+        run.put("counters", counters);
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(historyFile, true), StandardCharsets.UTF_8)) {
+            writer.write(new Gson().toJson(run));
+            writer.write('\n');
+        } catch (IOException e) {
+            System.out.println("[WARN] Could not append to " + historyFile + ".");
+        }
+    }
+
+    /**
+     * Trace event format, as read by chrome://tracing and Perfetto: one complete event per phase.
+     */
+    private void writeTrace(File traceFile, List<Record> sorted) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (Record record : sorted) {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("name", record.detail == null ? record.name : record.name + " " + record.detail);
+            event.put("cat", record.name);
+            event.put("ph", "X");
+            event.put("ts", record.start / 1000L);
+            event.put("dur", Math.max(record.wall / 1000L, 1L));
+            event.put("pid", 1);
+            event.put("tid", record.threadId);
+
+            Map<String, Object> args = new LinkedHashMap<>();
+            args.put("cpuMillis", record.cpu / 1e6);
+            args.put("allocatedBytes", record.allocated);
+            event.put("args", args);
+            events.add(event);
+        }
+
+        Map<String, Object> trace = new LinkedHashMap<>();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(traceFile), StandardCharsets.UTF_8)) {
+            new Gson().toJson(trace, writer);
+        } catch (IOException e) {
+            System.out.println("[WARN] Could not write " + traceFile + ".");
+        }
+    }
+
+    /**
+     * A running phase, ended by close.
+     */
+    public interface Phase extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    static class Record {
+        final String name;
+        final String detail;
+        final long threadId;
+        /** Nanos since profiling started. */
+        final long start;
+        final long wall;
+        final long cpu;
+        final long allocated;
+
+        Record(String name, String detail, long threadId, long start, long wall, long cpu, long allocated) {
+            this.name = name;
+            this.detail = detail;
+            this.threadId = threadId;
+            this.start = start;
+            this.wall = wall;
+            this.cpu = cpu;
+            this.allocated = allocated;
+        }
+    }
+
+    private static class Summary {
+        private int count;
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+
+        void add(Record record) {
+            this.count++;
+            this.wallNanos += record.wall;
+            this.cpuNanos += record.cpu;
+            this.allocatedBytes += record.allocated;
+        }
+    }
+}
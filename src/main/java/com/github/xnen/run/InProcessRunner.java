@@ -0,0 +1,198 @@
+package com.github.xnen.run;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.Permission;
+
+/**
+ * @author xnen
+ * Runs a compiled script's main method inside the launcher JVM, instead of spawning a second one.
+ *
+ * The script gets its own thread group. Like a JVM, a run only ends once every non-daemon thread of
+ * that group has finished, with exit code 1 if main threw. With exit trapping enabled, System.exit
+ * from script threads ends the run with the given status instead of halting the launcher.
+ */
+public class InProcessRunner {
+    private static ExitTrap exitTrap;
+
+    private final ScriptClassLoader loader;
+    private final ScriptGroup group;
+    private volatile Integer exitStatus;
+    private volatile boolean exitCalled;
+
+    public InProcessRunner(ScriptClassLoader loader) {
+        this.loader = loader;
+        this.group = new ScriptGroup(this, "jsc-" + loader.getMainClass());
+    }
+
+    /**
+     * Installs a security manager that turns System.exit from script threads into an ExitException.
+     * JDK 17 prints a warning about the deprecated security manager to stderr when it is installed. From JDK 18
+     * it can only be installed if the JVM runs with -Djava.security.manager=allow.
+     * @return false if the runtime no longer allows installing one, in which case System.exit halts the launcher
+     */
+    @SuppressWarnings("removal")
+    public static synchronized boolean trapExit() {
+        if (exitTrap != null) {
+            return true;
+        }
+
+        try {
+            ExitTrap trap = new ExitTrap();
+            System.setSecurityManager(trap);
+            exitTrap = trap;
+            return true;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs main and waits for the script to finish.
+     * @return the script's exit code
+     */
+    public int run(String[] args) throws InterruptedException {
+        Method main;
+        try {
+            Class<?> mainClass = Class.forName(this.loader.getMainClass(), false, this.loader);
+            main = mainClass.getMethod("main", String[].class);
+            if (!Modifier.isStatic(main.getModifiers())) {
+                throw new NoSuchMethodException("main is not static");
+            }
+        } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+            System.err.println("Error: Could not find or load main class " + this.loader.getMainClass());
+            System.err.println("Caused by: " + e);
+            return 1;
+        }
+
+        Thread mainThread = new Thread(this.group, () -> {
+            try {
+                main.invoke(null, (Object) args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (!(cause instanceof ExitException)) {
+                    this.exit(1);
+                    System.err.print("Exception in thread \"main\" ");
+                    cause.printStackTrace();
+                }
+            } catch (IllegalAccessException e) {
+                this.exit(1);
+                e.printStackTrace();
+            }
+        }, "main");
+        // Like the JVM's own main thread, whatever thread the runner was called from.
+        mainThread.setDaemon(false);
+        mainThread.setContextClassLoader(this.loader);
+        mainThread.start();
+
+        this.awaitNonDaemonThreads();
+        return this.exitStatus == null ? 0 : this.exitStatus;
+    }
+
+    /**
+     * @return true if the run ended through System.exit, rather than by finishing or throwing
+     */
+    public boolean isExitCalled() {
+        return this.exitCalled;
+    }
+
+    private void awaitNonDaemonThreads() throws InterruptedException {
+        while (this.exitStatus == null) {
+            Thread[] threads = new Thread[this.group.activeCount() + 1];
+            int count = this.group.enumerate(threads, true);
+
+            Thread pending = null;
+            for (int i = 0; i < count; i++) {
+                if (!threads[i].isDaemon() && threads[i].isAlive()) {
+                    pending = threads[i];
+                    break;
+                }
+            }
+
+            if (pending == null) {
+                return;
+            }
+
+            // Poll, so an exit from another thread is noticed while this one still runs.
+            pending.join(50L);
+        }
+    }
+
+    private void exit(int status) {
+        if (this.exitStatus == null) {
+            synchronized (this) {
+                if (this.exitStatus == null) {
+                    this.exitStatus = status;
+                }
+            }
+        }
+    }
+
+    private static InProcessRunner findRunner(ThreadGroup group) {
+        for (ThreadGroup g = group; g != null; g = g.getParent()) {
+            if (g instanceof ScriptGroup) {
+                return ((ScriptGroup) g).runner;
+            }
+        }
+        return null;
+    }
+
+    private static class ScriptGroup extends ThreadGroup {
+        private final InProcessRunner runner;
+
+        ScriptGroup(InProcessRunner runner, String name) {
+            super(name);
+            this.runner = runner;
+        }
+
+        /**
+         * Uncaught exceptions other than exits print like the JVM would.
+         */
+        @Override
+        public void uncaughtException(Thread thread, Throwable throwable) {
+            if (!(throwable instanceof ExitException)) {
+                System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+                throwable.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Thrown out of System.exit when called from a script thread.
+     */
+    public static class ExitException extends SecurityException {
+        private final int status;
+
+        ExitException(int status) {
+            super("System.exit(" + status + ")");
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return this.status;
+        }
+    }
+
+    @SuppressWarnings("removal")
+    private static class ExitTrap extends SecurityManager {
+        @Override
+        public void checkExit(int status) {
+            InProcessRunner runner = findRunner(Thread.currentThread().getThreadGroup());
+            if (runner != null) {
+                runner.exitCalled = true;
+                runner.exit(status);
+                throw new ExitException(status);
+            }
+        }
+
+        @Override
+        public void checkPermission(Permission perm) {
+            // Everything else stays allowed.
+        }
+
+        @Override
+        public void checkPermission(Permission perm, Object context) {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.xnen.run;
+
+import com.github.xnen.cache.ArtifactCache;
+import com.github.xnen.cache.Workspace;
+import com.github.xnen.decode.ImportResolver;
+import com.github.xnen.decode.JSCCompiler;
+import com.github.xnen.decode.JSCHandler;
+import com.github.xnen.profile.Profiler;
+import com.github.xnen.settings.Settings;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * @author xnen
+ * Turns a JSC file into a runnable jar. One builder can serve many builds, sharing its import resolver.
+ */
+public class ScriptBuilder {
+    private final Settings settings;
+    private final ArtifactCache cache;
+    private final ImportResolver importResolver = new ImportResolver();
+
+    public ScriptBuilder(Settings settings) {
+        this.settings = settings;
+        this.cache = new ArtifactCache(settings);
+    }
+
+    public ImportResolver getImportResolver() {
+        return this.importResolver;
+    }
+
+    /**
+     * Parses, compiles and packs a JSC file, or takes the packed jar from the artifact cache when
+     * nothing it depends on changed.
+     * @param baseDir directory relative names are resolved against, or null for the working directory
+     * @return the build, to close once its jar has run
+     */
+    public Build build(File baseDir, String jscFile) throws IOException {
+        return this.build(baseDir, jscFile, null);
+    }
+
+    /**
+     * Like build, reusing an in-process compiler, i.e. one per --precompile worker.
+     * @param compiler in-process compiler used by one build at a time, or null
+     */
+    public Build build(File baseDir, String jscFile, JSCCompiler compiler) throws IOException {
+        File mainFile = new File(jscFile);
+        if (!mainFile.isAbsolute() && baseDir != null) {
+            mainFile = new File(baseDir, jscFile);
+        }
+
+        String key = null;
+        if (this.settings.ARTIFACT_CACHE) {
+            File cached;
+            try (Profiler.Phase ignored = Profiler.phase("cache")) {
+                key = this.cache.computeKey(mainFile, baseDir);
+                cached = this.cache.lookup(key);
+            }
+            if (cached != null) {
+                return new Build(cached, null);
+            }
+        }
+
+        // Every build compiles and packs in its own workspace, so builds and launches never wait for each other.
+        Workspace workspace = Workspace.create(this.settings);
+        try {
+            File jar = new File(workspace.getDir(), mainFile.getName().replaceAll("\\.jsc$", "") + ".jar");
+            boolean packed = this.compile(baseDir, jscFile, compiler, workspace.getDir().toPath(), jar);
+
+            if (packed && key != null) {
+                File cached = null;
+                try (Profiler.Phase ignored = Profiler.phase("cache")) {
+                    cached = this.cache.store(key, jar);
+                } catch (IOException e) {
+                    System.out.println("[WARN] Could not store " + jar.getName() + " in the artifact cache.");
+                    e.printStackTrace();
+                }
+                if (cached != null) {
+                    workspace.close();
+                    return new Build(cached, null);
+                }
+            }
+            return new Build(jar, workspace);
+        } catch (IOException | RuntimeException e) {
+            workspace.close();
+            throw e;
+        }
+    }
+
+    private boolean compile(File baseDir, String jscFile, JSCCompiler compiler, Path tempDir, File jar) {
+        this.importResolver.invalidateIfChanged();
+
+        try (JSCHandler handler = new JSCHandler(baseDir, jscFile, this.importResolver)) {
+            handler.compileAll(tempDir, compiler);
+            return handler.pack(tempDir, jar);
+        }
+    }
+
+    /**
+     * A built jar. Cached jars stay in the artifact cache, others are deleted with their workspace on close.
+     */
+    public static class Build implements Closeable {
+        private final File jar;
+        private final Workspace workspace;
+
+        Build(File jar, Workspace workspace) {
+            this.jar = jar;
+            this.workspace = workspace;
+        }
+
+        public File getJar() {
+            return this.jar;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.workspace != null) {
+                this.workspace.close();
+            }
+        }
+    }
+}
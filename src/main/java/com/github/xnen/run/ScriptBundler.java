@@ -0,0 +1,166 @@
+package com.github.xnen.run;
+
+import com.github.xnen.decode.JarWriter;
+import com.github.xnen.settings.Settings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * @author xnen
+ * Builds standalone jars for --build: the script's classes and every class and resource of its libraries in
+ * one jar without a Class-Path, so a deploy host only needs 'java -jar', and neither the JSC pipeline nor
+ * JDK_LOCATION.
+ *
+ * Like on the classpath, the first jar with an entry wins, starting with the script's own. Service files
+ * are merged, and library signatures, which no longer match, are left out.
+ */
+public class ScriptBundler {
+    private final Settings settings;
+    private final ScriptBuilder builder;
+
+    public ScriptBundler(Settings settings) {
+        this.settings = settings;
+        this.builder = new ScriptBuilder(settings);
+    }
+
+    /**
+     * Builds the script, or takes it from the artifact cache, and writes its standalone jar.
+     */
+    public void bundle(String jscFile, File out) throws IOException {
+        try (ScriptBuilder.Build build = this.builder.build(null, jscFile)) {
+            this.bundle(build.getJar(), out);
+        }
+    }
+
+    private void bundle(File scriptJar, File out) throws IOException {
+        Manifest scriptManifest;
+        try (JarFile jar = new JarFile(scriptJar)) {
+            scriptManifest = jar.getManifest();
+        }
+        if (scriptManifest == null) {
+            throw new IOException("No manifest in " + scriptJar);
+        }
+
+        List<File> jars = new ArrayList<>();
+        jars.add(scriptJar);
+        for (String library : ScriptClassLoader.getClassPath(scriptJar, scriptManifest)) {
+            jars.add(new File(library));
+        }
+
+        SortedMap<String, byte[]> entries = new TreeMap<>();
+        Map<String, Set<String>> services = new TreeMap<>();
+        boolean multiRelease = false;
+        int shadowed = 0;
+        for (File jar : jars) {
+            try (JarFile jarFile = new JarFile(jar)) {
+                Manifest manifest = jarFile.getManifest();
+                if (manifest != null && "true".equalsIgnoreCase(manifest.getMainAttributes().getValue("Multi-Release"))) {
+                    multiRelease = true;
+                }
+
+                Enumeration<JarEntry> jarEntries = jarFile.entries();
+                while (jarEntries.hasMoreElements()) {
+                    JarEntry entry = jarEntries.nextElement();
+                    String name = entry.getName();
+                    if (entry.isDirectory() || isExcluded(name)) {
+                        continue;
+                    }
+
+                    if (name.startsWith("META-INF/services/")) {
+                        Set<String> providers = services.computeIfAbsent(name, k -> new LinkedHashSet<>());
+                        for (String line : new String(read(jarFile, entry), StandardCharsets.UTF_8).split("\r?\n")) {
+                            String provider = line.replaceAll("#.*", "").trim();
+                            if (!provider.isEmpty()) {
+                                providers.add(provider);
+                            }
+                        }
+                    } else if (!entries.containsKey(name)) {
+                        entries.put(name, read(jarFile, entry));
+                    } else if (name.endsWith(".class")) {
+                        shadowed++;
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> service : services.entrySet()) {
+            StringBuilder providers = new StringBuilder();
+            for (String provider : service.getValue()) {
+                providers.append(provider).append('\n');
+            }
+            entries.put(service.getKey(), providers.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (shadowed > 0) {
+            System.out.println("[WARN] " + shadowed + " classes are in more than one jar, the first on the classpath was kept.");
+        }
+
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(Attributes.Name.MAIN_CLASS, scriptManifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS));
+        if (multiRelease) {
+            attributes.putValue("Multi-Release", "true");
+        }
+
+        JarWriter.writeAtomically(out, manifest, entries, this.settings.PACK_UNCOMPRESSED);
+    }
+
+    /**
+     * Runs a standalone jar once, recording every class it loads, for building a CDS archive on the deploy host.
+     * @return the class list, or null if the run didn't write one
+     */
+    public File recordClassList(File bundle, String[] args) throws IOException, InterruptedException {
+        File classList = new File(bundle.getAbsoluteFile().getParentFile(), stripExtension(bundle.getName()) + ".classlist");
+        if (classList.exists() && !classList.delete()) {
+            throw new IOException("Could not replace " + classList);
+        }
+
+        List<String> command = ScriptProcess.command(bundle, args,
+                Collections.singletonList("-XX:DumpLoadedClassList=" + classList.getAbsolutePath()));
+        ScriptProcess.run(command);
+        return classList.isFile() ? classList : null;
+    }
+
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Manifests are replaced, signatures would no longer match, and a merged jar is no module.
+     */
+    private static boolean isExcluded(String name) {
+        if (name.equals(JarFile.MANIFEST_NAME) || name.equals("META-INF/INDEX.LIST") || name.equals("module-info.class")) {
+            return true;
+        }
+        if (name.startsWith("META-INF/versions/") && name.endsWith("/module-info.class")) {
+            return true;
+        }
+
+        String upper = name.toUpperCase(Locale.ROOT);
+        return upper.startsWith("META-INF/") && upper.indexOf('/', "META-INF/".length()) < 0
+                && (upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC"));
+    }
+
+    private static byte[] read(JarFile jarFile, JarEntry entry) throws IOException {
+        try (InputStream in = jarFile.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.xnen.run;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * @author xnen
+ * Isolated loader for a compiled script. Script classes come from memory or from the packed jar, and
+ * library jars from the classpath. The parent is the platform loader, so none of the launcher's own
+ * classes (Gson, Parameters, ...) leak into the script.
+ */
+public class ScriptClassLoader extends URLClassLoader {
+    private final Map<String, byte[]> classes;
+    private volatile String mainClass;
+
+    public ScriptClassLoader(String mainClass, Map<String, byte[]> classes, List<String> libraries, ClassLoader parent) {
+        super(toURLs(libraries), parent);
+        this.mainClass = mainClass;
+        this.classes = new ConcurrentHashMap<>(classes);
+    }
+
+    public ScriptClassLoader(String mainClass, Map<String, byte[]> classes, List<String> libraries) {
+        this(mainClass, classes, libraries, getPlatformLoader());
+    }
+
+    /**
+     * Creates a loader for a jar written by JSCHandler.pack, reading Main-Class and Class-Path from its manifest.
+     */
+    public static ScriptClassLoader forJar(File jar) throws IOException {
+        return forJar(jar, null);
+    }
+
+    /**
+     * Like forJar(jar), but library jars are loaded by a parent loader shared with every other script using
+     * exactly the same library jars, so library classes are only loaded and linked once.
+     */
+    public static ScriptClassLoader forJar(File jar, SharedLibraries sharedLibraries) throws IOException {
+        Manifest manifest;
+        try (JarFile jarFile = new JarFile(jar)) {
+            manifest = jarFile.getManifest();
+        }
+        if (manifest == null) {
+            throw new IOException("No manifest in " + jar);
+        }
+
+        List<String> classpath = getClassPath(jar, manifest);
+        String mainClass = manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+        if (sharedLibraries == null) {
+            classpath.add(0, jar.getAbsolutePath());
+            return new ScriptClassLoader(mainClass, Collections.<String, byte[]>emptyMap(), classpath);
+        }
+
+        return new ScriptClassLoader(mainClass, Collections.<String, byte[]>emptyMap(), Collections.singletonList(jar.getAbsolutePath()),
+                sharedLibraries.get(classpath));
+    }
+
+    /**
+     * @return the library jars in the manifest's Class-Path, relative ones resolved against the jar's directory
+     */
+    static List<String> getClassPath(File jar, Manifest manifest) {
+        List<String> classpath = new ArrayList<>();
+        String cp = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+        if (cp != null) {
+            for (String entry : cp.trim().split(" +")) {
+                if (entry.isEmpty()) {
+                    continue;
+                }
+
+                File file = new File(entry.replace("%20", " "));
+                classpath.add(file.isAbsolute() ? file.getPath() : new File(jar.getAbsoluteFile().getParentFile(), file.getPath()).getPath());
+            }
+        }
+        return classpath;
+    }
+
+    public String getMainClass() {
+        return this.mainClass;
+    }
+
+    /**
+     * Adds classes and library jars to an existing loader, i.e. one input of the prompt, so they share the
+     * runtime package of every class added before them.
+     * @param mainClass the class to run from now on
+     */
+    public void add(String mainClass, Map<String, byte[]> classes, List<String> libraries) {
+        this.classes.putAll(classes);
+        for (URL url : toURLs(libraries)) {
+            this.addURL(url);
+        }
+        this.mainClass = mainClass;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = this.classes.get(name);
+        if (bytes != null) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+        return super.findClass(name);
+    }
+
+    static ClassLoader getPlatformLoader() {
+        return ClassLoader.getSystemClassLoader().getParent();
+    }
+
+    /**
+     * Library loaders shared between scripts, one per set of library jars. A loader is dropped once one of its
+     * jars changed or is gone, so a resident launcher doesn't keep the classes of every version a library had.
+     * Dropped loaders are left open for scripts still running with them, and collected once those finish.
+     */
+    public static class SharedLibraries {
+        private final Map<List<String>, Shared> loaders = new ConcurrentHashMap<>();
+
+        ClassLoader get(List<String> classpath) {
+            this.loaders.values().removeIf(shared -> !shared.signature.equals(getSignature(shared.classpath)));
+
+            String signature = getSignature(classpath);
+            return this.loaders.compute(classpath, (k, shared) -> shared != null && shared.signature.equals(signature) ? shared
+                    : new Shared(classpath, signature, new URLClassLoader(toURLs(classpath), getPlatformLoader()))).loader;
+        }
+
+        /**
+         * @return the paths, sizes and modification times of the jars
+         */
+        private static String getSignature(List<String> classpath) {
+            StringBuilder signature = new StringBuilder();
+            for (String library : classpath) {
+                File file = new File(library);
+                signature.append(library).append(':').append(file.length()).append(':').append(file.lastModified()).append(';');
+            }
+            return signature.toString();
+        }
+
+        private static class Shared {
+            private final List<String> classpath;
+            private final String signature;
+            private final ClassLoader loader;
+
+            Shared(List<String> classpath, String signature, ClassLoader loader) {
+                this.classpath = classpath;
+                this.signature = signature;
+                this.loader = loader;
+            }
+        }
+    }
+
+    private static URL[] toURLs(List<String> paths) {
+        URL[] urls = new URL[paths.size()];
+        for (int i = 0; i < urls.length; i++) {
+            try {
+                urls[i] = new File(paths.get(i)).toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(paths.get(i), e);
+            }
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.xnen.run;
+
+import com.github.xnen.decode.JSCCompiler;
+import com.github.xnen.decode.JSCException;
+import com.github.xnen.decode.JSCParser;
+import com.github.xnen.settings.Settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author xnen
+ * Builds every script under a directory into the artifact cache for --precompile, so their first runs, i.e.
+ * right after a deploy, start from a cached jar. Scripts only reached through another script's 'using' or 'ext'
+ * are built as part of it.
+ *
+ * Builds run on a bounded pool and share one builder, and with it one import resolver. Each worker reuses its
+ * in-process compiler across its builds, as javac's file manager is not safe to share between threads.
+ */
+public class ScriptPrecompiler {
+    private final Settings settings;
+    private final ScriptBuilder builder;
+
+    public ScriptPrecompiler(Settings settings) {
+        this.settings = settings;
+        this.builder = new ScriptBuilder(settings);
+    }
+
+    /**
+     * Builds every entry point under the directory, printing the time or errors of each in name order.
+     * @param threads builds to run at once
+     * @return the number of scripts that failed to build
+     */
+    public int precompile(File dir, int threads) throws IOException, InterruptedException {
+        if (!this.settings.ARTIFACT_CACHE) {
+            throw new JSCException("Precompiling fills the artifact cache, turn on ARTIFACT_CACHE in --settings.");
+        }
+        if (!dir.isDirectory()) {
+            throw new JSCException("No directory " + dir + ".");
+        }
+
+        List<File> scripts = findEntryPoints(dir);
+        if (scripts.isEmpty()) {
+            System.out.println("No scripts in " + dir + ".");
+            return 0;
+        }
+
+        boolean inMemory = this.settings.IN_MEMORY_COMPILE && JSCCompiler.isAvailable();
+        List<JSCCompiler> compilers = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<JSCCompiler> workerCompiler = ThreadLocal.withInitial(() -> {
+            JSCCompiler compiler = new JSCCompiler();
+            compilers.add(compiler);
+            return compiler;
+        });
+
+        AtomicInteger workers = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, scripts.size())), r -> {
+            Thread thread = new Thread(r, "jsc-precompile-" + workers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long start = System.nanoTime();
+        int failed = 0;
+        try {
+            List<Future<Result>> results = new ArrayList<>();
+            for (File script : scripts) {
+                results.add(pool.submit(() -> this.build(script, inMemory ? workerCompiler.get() : null)));
+            }
+
+            Path root = dir.getAbsoluteFile().toPath();
+            for (Future<Result> future : results) {
+                Result result = future.get();
+                String name = root.relativize(result.script.getAbsoluteFile().toPath()).toString();
+                if (result.error == null) {
+                    System.out.println(String.format("%6d ms  %s", result.millis, name));
+                } else {
+                    failed++;
+                    System.out.println(String.format("%6d ms  %s FAILED", result.millis, name));
+                    System.out.println(result.error);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Precompile worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+            for (JSCCompiler compiler : compilers) {
+                compiler.close();
+            }
+        }
+
+        System.out.println("Precompiled " + (scripts.size() - failed) + " of " + scripts.size() + " scripts in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms" + (failed > 0 ? ", " + failed + " failed." : "."));
+        return failed;
+    }
+
+    private Result build(File script, JSCCompiler compiler) {
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            this.builder.build(script.getAbsoluteFile().getParentFile(), script.getName(), compiler).close();
+        } catch (JSCException e) {
+            error = e.getMessage();
+        } catch (IOException | RuntimeException e) {
+            error = e.toString();
+        }
+        return new Result(script, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), error);
+    }
+
+    /**
+     * @return every JSC file under the directory, sorted, except those another file reaches through 'using' or
+     * 'ext' without being reached back
+     */
+    private static List<File> findEntryPoints(File dir) throws IOException {
+        List<File> scripts;
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            scripts = files.filter(file -> file.toString().endsWith(".jsc") && Files.isRegularFile(file))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+
+        Map<String, Set<String>> reachable = new HashMap<>();
+        for (File script : scripts) {
+            Set<String> reached = new HashSet<>();
+            try {
+                for (File file : JSCParser.getReachableFiles(script, script.getAbsoluteFile().getParentFile())) {
+                    reached.add(file.getCanonicalPath());
+                }
+            } catch (IOException | RuntimeException e) {
+                // A missing 'using' file, reported when the script is built.
+            }
+            reachable.put(script.getCanonicalPath(), reached);
+        }
+
+        List<File> entryPoints = new ArrayList<>();
+        for (File script : scripts) {
+            String path = script.getCanonicalPath();
+            boolean library = false;
+            for (Map.Entry<String, Set<String>> other : reachable.entrySet()) {
+                if (!other.getKey().equals(path) && other.getValue().contains(path) && !reachable.get(path).contains(other.getKey())) {
+                    library = true;
+                    break;
+                }
+            }
+            if (!library) {
+                entryPoints.add(script);
+            }
+        }
+        return entryPoints;
+    }
+
+    private static class Result {
+        private final File script;
+        private final long millis;
+        /** Why the build failed, or null. */
+        private final String error;
+
+        Result(File script, long millis, String error) {
+            this.script = script;
+            this.millis = millis;
+            this.error = error;
+        }
+    }
+}
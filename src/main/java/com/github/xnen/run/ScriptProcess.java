@@ -0,0 +1,76 @@
+package com.github.xnen.run;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author xnen
+ * Runs a script in a child JVM and forwards its standard streams.
+ */
+public class ScriptProcess {
+    private ScriptProcess() {
+    }
+
+    /**
+     * @return the command running a packed script jar with the given arguments
+     */
+    public static List<String> command(File jar, String[] args) {
+        return command(jar, args, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param jvmOptions options for the child JVM, i.e. from its CDS archive
+     */
+    public static List<String> command(File jar, String[] args, List<String> jvmOptions) {
+        List<String> command = new ArrayList<>();
+        command.add("java");
+        command.addAll(jvmOptions);
+        command.add("-jar");
+        command.add(jar.getAbsolutePath());
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
+    /**
+     * Runs the command with the launcher's own stdin, stdout and stderr, so the child reads and writes
+     * them directly and the launcher copies nothing.
+     * @return the exit code of the child
+     */
+    public static int run(List<String> command) throws IOException, InterruptedException {
+        return start(command).waitFor();
+    }
+
+    /**
+     * Starts the command like run(command), without waiting for it.
+     */
+    public static Process start(List<String> command) throws IOException {
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Runs the command with its standard streams forwarded to the given ones by pump threads,
+     * stdout and stderr kept separate.
+     * @param workingDir directory the child runs in, or null for the launcher's
+     * @return the exit code of the child
+     */
+    public static int run(List<String> command, File workingDir, InputStream in, OutputStream out, OutputStream err) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).directory(workingDir).start();
+
+        StreamPump.start("jsc-stdin", in, process.getOutputStream(), true);
+        Thread stdout = StreamPump.start("jsc-stdout", process.getInputStream(), out, false);
+        Thread stderr = StreamPump.start("jsc-stderr", process.getErrorStream(), err, false);
+
+        int exitCode = process.waitFor();
+
+        // Drain whatever the child wrote right before exiting.
+        stdout.join();
+        stderr.join();
+        return exitCode;
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.xnen.run;
+
+import com.github.xnen.decode.ImportResolver;
+import com.github.xnen.decode.JSCException;
+import com.github.xnen.decode.JSCLexer;
+import com.github.xnen.decode.JSCSession;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author xnen
+ * The real-time prompt. Reads inputs from stdin, where an input spans lines until its braces are closed,
+ * compiles each one through a JSCSession and runs it inside the launcher JVM like a script, with System.exit
+ * ending the session.
+ *
+ * The classes of every input are added to one loader, so classes of earlier inputs, along with the values
+ * of their static fields, stay loaded for the whole session, and their package-private members stay accessible.
+ */
+public class ScriptRepl {
+    private static final String PROMPT = "jsc> ";
+    private static final String CONTINUATION_PROMPT = "...> ";
+
+    private final JSCSession session;
+    private final Set<String> loadedLibraries = new HashSet<>();
+    private ScriptClassLoader loader;
+
+    public ScriptRepl() throws IOException {
+        this.session = new JSCSession(new ImportResolver());
+    }
+
+    /**
+     * Runs until stdin ends, '/exit' is entered or an input calls System.exit.
+     * @return the exit status of the session
+     */
+    public int run() throws IOException, InterruptedException {
+        InProcessRunner.trapExit();
+        try {
+            this.session.warmUp();
+        } catch (RuntimeException e) {
+            System.out.println("[WARN] Could not warm up: " + e.getMessage());
+        }
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        StringBuilder input = new StringBuilder();
+        try {
+            while (true) {
+                System.out.print(input.length() == 0 ? PROMPT : CONTINUATION_PROMPT);
+                System.out.flush();
+
+                String line = in.readLine();
+                if (line == null || (input.length() == 0 && line.trim().equals("/exit"))) {
+                    return 0;
+                }
+
+                input.append(line).append('\n');
+                if (input.toString().trim().isEmpty()) {
+                    input.setLength(0);
+                    continue;
+                }
+                if (!JSCLexer.isComplete(input.toString())) {
+                    continue;
+                }
+
+                Integer status = this.eval(input.toString());
+                input.setLength(0);
+                if (status != null) {
+                    return status;
+                }
+            }
+        } finally {
+            this.session.close();
+        }
+    }
+
+    /**
+     * @return the exit status if the input called System.exit, otherwise null
+     */
+    private Integer eval(String text) throws InterruptedException {
+        JSCSession.Input input;
+        try {
+            input = this.session.compile(text);
+        } catch (JSCException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+
+        List<String> libraries = new ArrayList<>();
+        for (String library : input.getLibraries()) {
+            if (this.loadedLibraries.add(library)) {
+                libraries.add(library);
+            }
+        }
+
+        if (this.loader == null) {
+            this.loader = new ScriptClassLoader(input.getClassName(), input.getClasses(), libraries);
+        } else {
+            this.loader.add(input.getClassName(), input.getClasses(), libraries);
+        }
+
+        InProcessRunner runner = new InProcessRunner(this.loader);
+        int status = runner.run(new String[0]);
+        return runner.isExitCalled() ? status : null;
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.xnen.run;
+
+import com.github.xnen.decode.JSCException;
+import com.github.xnen.decode.JSCParser;
+import com.github.xnen.settings.Settings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author xnen
+ * Watch mode. Builds and runs a script, then watches its JSC file and every file it reaches through
+ * 'using'/'ext'. Once changes settle, the script is rebuilt (incrementally, with a warm import index) and
+ * the running script is restarted. Changes during a build are coalesced into the next one.
+ * A build that fails leaves the running script alone.
+ */
+public class ScriptWatcher {
+    /** Quiet period after the last change before rebuilding, so an editor's save burst triggers one build. */
+    private static final long DEBOUNCE_MILLIS = 150L;
+    private static final long STOP_TIMEOUT_MILLIS = 2000L;
+
+    private final ScriptBuilder builder;
+    private final WatchService watchService;
+    private final Map<Path, WatchKey> watchedDirs = new HashMap<>();
+    private final Set<Path> watchedFiles = new HashSet<>();
+
+    private volatile Process script;
+    private File scriptJar;
+
+    public ScriptWatcher(Settings settings) throws IOException {
+        this.builder = new ScriptBuilder(settings);
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Runs until the launcher is stopped.
+     */
+    public void watch(String jscFile, String[] args) throws IOException, InterruptedException {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+
+        File mainFile = new File(jscFile);
+        while (true) {
+            this.updateWatchedFiles(mainFile);
+            this.rebuild(jscFile, args);
+            this.awaitChanges();
+        }
+    }
+
+    private void rebuild(String jscFile, String[] args) throws IOException {
+        try (ScriptBuilder.Build build = this.builder.build(null, jscFile)) {
+            this.stop();
+
+            // Run a private copy, as an uncached jar is deleted with its build, and a cached one may be evicted.
+            this.scriptJar = File.createTempFile("jscwatch", ".jar");
+            Files.copy(build.getJar().toPath(), this.scriptJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (JSCException e) {
+            System.out.println(e.getMessage());
+            System.out.println("[WATCH] Build failed, waiting for changes.");
+            return;
+        }
+
+        Process process = ScriptProcess.start(ScriptProcess.command(this.scriptJar, args));
+        this.script = process;
+
+        Thread waiter = new Thread(() -> {
+            try {
+                int exitCode = process.waitFor();
+                if (this.script == process) {
+                    System.out.println("[WATCH] Script exited with " + exitCode + ", waiting for changes.");
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "jsc-watch-exit");
+        waiter.setDaemon(true);
+        waiter.start();
+    }
+
+    private synchronized void stop() {
+        Process process = this.script;
+        this.script = null;
+        if (process != null && process.isAlive()) {
+            process.destroy();
+            try {
+                if (!process.waitFor(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly().waitFor();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (this.scriptJar != null && !this.scriptJar.delete()) {
+            this.scriptJar.deleteOnExit();
+        }
+        this.scriptJar = null;
+    }
+
+    /**
+     * Watches the directories of every reachable file. If the graph can't be read, i.e. a file is missing
+     * mid-edit, the previous files stay watched along with the main file.
+     */
+    private void updateWatchedFiles(File mainFile) throws IOException {
+        Set<Path> files = new HashSet<>();
+        files.add(mainFile.getAbsoluteFile().toPath().normalize());
+        try {
+            for (File file : JSCParser.getReachableFiles(mainFile, null)) {
+                files.add(file.getAbsoluteFile().toPath().normalize());
+            }
+        } catch (JSCException e) {
+            files.addAll(this.watchedFiles);
+        }
+
+        this.watchedFiles.clear();
+        this.watchedFiles.addAll(files);
+
+        Set<Path> dirs = new HashSet<>();
+        for (Path file : files) {
+            dirs.add(file.getParent());
+        }
+
+        Iterator<Map.Entry<Path, WatchKey>> it = this.watchedDirs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = it.next();
+            if (!dirs.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+        for (Path dir : dirs) {
+            if (!this.watchedDirs.containsKey(dir) && Files.isDirectory(dir)) {
+                this.watchedDirs.put(dir, dir.register(this.watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+            }
+        }
+    }
+
+    /**
+     * Blocks until a watched file changed and no further change followed within the debounce period.
+     */
+    private void awaitChanges() throws InterruptedException {
+        boolean changed = false;
+        while (!changed) {
+            changed = this.drain(this.watchService.take());
+        }
+
+        WatchKey key;
+        while ((key = this.watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+            this.drain(key);
+        }
+    }
+
+    /**
+     * @return true if any event of the key concerns a watched file
+     */
+    private boolean drain(WatchKey key) {
+        boolean relevant = false;
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // Events were dropped, so assume the worst.
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                relevant = true;
+                continue;
+            }
+
+            if (this.watchedFiles.contains(dir.resolve((Path) event.context()))) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.xnen.run;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * @author xnen
+ * Copies one stream to another on a dedicated thread with a single reused buffer. Output is flushed
+ * whenever the source has nothing more buffered, so interactive output shows up immediately while bulk
+ * output is written in full buffers.
+ */
+public class StreamPump implements Runnable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final boolean closeOut;
+
+    /**
+     * @param closeOut close the target at end of input, i.e. to signal EOF to a child's stdin
+     */
+    public StreamPump(InputStream in, OutputStream out, boolean closeOut) {
+        this.in = in;
+        this.out = out;
+        this.closeOut = closeOut;
+    }
+
+    public static Thread start(String name, InputStream in, OutputStream out, boolean closeOut) {
+        Thread thread = new Thread(new StreamPump(in, out, closeOut), name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int read;
+            while ((read = this.in.read(buffer)) != -1) {
+                this.out.write(buffer, 0, read);
+                if (this.in.available() == 0) {
+                    this.out.flush();
+                }
+            }
+            this.out.flush();
+        } catch (IOException ignored) {
+            // Either side went away, i.e. the child exited while stdin was still being forwarded.
+        } finally {
+            if (this.closeOut) {
+                try {
+                    this.out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -14,6 +14,24 @@ import java.util.Map;
 public class Settings {
     public String JDK_LOCATION = "";
     public String LIB_DIRECTORY = "$home/.jrt-libs";
+    public String CACHE_DIRECTORY = "$home/.jrt-cache";
+    /** Compile with the launcher's own javax.tools compiler instead of forking JDK_LOCATION/bin/javac. */
+    public boolean IN_MEMORY_COMPILE = true;
+    /** Only recompile classes whose generated Java changed, and the classes depending on them. */
+    public boolean INCREMENTAL_COMPILE = true;
+    /** Batches of independent classes a multi-file script compiles at once, 0 for one per core, 1 to compile all classes together. */
+    public int COMPILE_PARALLELISM = 0;
+    /** Reuse packed scripts from CACHE_DIRECTORY when none of their inputs changed. */
+    public boolean ARTIFACT_CACHE = true;
+    public int ARTIFACT_CACHE_MAX_MB = 256;
+    /** Store classes in packed jars without compression, trading jar size for faster class loading. */
+    public boolean PACK_UNCOMPRESSED = false;
+    /** Share class data sharing archives of cached scripts, dumped on their first run, and refresh the launcher archive made by --cds. */
+    public boolean CDS_ARCHIVES = true;
+    /** Run scripts inside the launcher JVM instead of spawning 'java -jar' for them. */
+    public boolean RUN_IN_PROCESS = false;
+    /** With --profile, also write a Chrome trace of the phases to CACHE_DIRECTORY/profile. */
+    public boolean PROFILE_TRACE = false;
 
     public Map<String, String> globalMacros = new HashMap<>();
 
@@ -54,4 +72,8 @@ public class Settings {
     public String getFormattedLibDirectory() {
         return this.LIB_DIRECTORY.replace("$home", System.getProperty("user.home"));
     }
+
+    public String getFormattedCacheDirectory() {
+        return this.CACHE_DIRECTORY.replace("$home", System.getProperty("user.home"));
+    }
 }
@@ -0,0 +1,34 @@
+package com.github.xnen.decode;
+
+import com.github.xnen.App;
+import com.github.xnen.settings.Settings;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class JSCParserTest {
+    @BeforeClass
+    public static void setUp() {
+        App.stInstance = new App(new Settings());
+    }
+
+    @Test
+    public void macroIsParsed() {
+        JSCClass parsed = JSCParser.parse(new ImportResolver(), "Macros.jsc", Arrays.asList(
+                "!macro \"k\" \"v\"",
+                "System.out.println(k);"));
+
+        assertEquals("v", parsed.getMacros().get("k"));
+    }
+
+    @Test
+    public void escapedQuoteStaysInMacro() {
+        JSCClass parsed = JSCParser.parse(new ImportResolver(), "Macros.jsc", Arrays.asList(
+                "!macro \"#quote\" \"\\\"\""));
+
+        assertEquals("\\\"", parsed.getMacros().get("#quote"));
+    }
+}
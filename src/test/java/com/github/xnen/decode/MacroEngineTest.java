@@ -0,0 +1,61 @@
+package com.github.xnen.decode;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class MacroEngineTest {
+    private static String expand(String line, String... macros) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < macros.length; i += 2) {
+            map.put(macros[i], macros[i + 1]);
+        }
+        return new MacroEngine(map).expand(line);
+    }
+
+    @Test
+    public void longestKeyWins() {
+        assertEquals("printf(x);", expand("#printf(x);", "#print", "print", "#printf", "printf"));
+        assertEquals("print(x);", expand("#print(x);", "#print", "print", "#printf", "printf"));
+    }
+
+    @Test
+    public void leftmostMatchWins() {
+        assertEquals("1cd", expand("abcd", "ab", "1", "bcd", "2"));
+    }
+
+    @Test
+    public void replacementIsNotRescanned() {
+        assertEquals("bc", expand("ab", "a", "b", "b", "c"));
+        assertEquals("xx", expand("x", "x", "xx"));
+    }
+
+    @Test
+    public void everyMatchOnTheLineIsExpanded() {
+        assertEquals("P(1); P(2); P(3);", expand("#p(1); #p(2); #p(3);", "#p", "P"));
+    }
+
+    @Test
+    public void stringLiteralIsSkipped() {
+        assertEquals("\"#p\" + P", expand("\"#p\" + #p", "#p", "P"));
+        assertEquals("\"a\\\"#p\" + P", expand("\"a\\\"#p\" + #p", "#p", "P"));
+    }
+
+    @Test
+    public void keyNextToStringLiteral() {
+        assertEquals("P\"#p\"P", expand("#p\"#p\"#p", "#p", "P"));
+    }
+
+    @Test
+    public void quoteCharLiteralIsSkipped() {
+        assertEquals("'\"' + P + '\"'", expand("'\"' + #p + '\"'", "#p", "P"));
+    }
+
+    @Test
+    public void textBlockIsSkipped() {
+        assertEquals("\"\"\"#p \"#p\" \"\"\" + P", expand("\"\"\"#p \"#p\" \"\"\" + #p", "#p", "P"));
+    }
+}